@@ -0,0 +1,138 @@
+package ru.turbogoose.cca.backend.common.cache;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * LRU cache bounded by the estimated size of its values in bytes rather than by the number of entries.
+ * Values larger than the whole capacity are never cached. Optionally entries expire after the given time to live,
+ * expired entries are dropped when they are looked up or when space is needed.
+ */
+public class ByteBoundedLruCache<K, V> {
+    private final String name;
+    private final long maxBytes;
+    private final ToLongFunction<V> weigher;
+    private final long ttlNanos;
+    private final LongSupplier nanoClock;
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+
+    public ByteBoundedLruCache(String name, long maxBytes, ToLongFunction<V> weigher) {
+        this(name, maxBytes, weigher, null);
+    }
+
+    /**
+     * @param ttl time to live of entries since they are put, or null if they never expire
+     */
+    public ByteBoundedLruCache(String name, long maxBytes, ToLongFunction<V> weigher, Duration ttl) {
+        this(name, maxBytes, weigher, ttl, System::nanoTime);
+    }
+
+    ByteBoundedLruCache(String name, long maxBytes, ToLongFunction<V> weigher, Duration ttl, LongSupplier nanoClock) {
+        this.name = name;
+        this.maxBytes = maxBytes;
+        this.weigher = weigher;
+        this.ttlNanos = ttl != null && ttl.isPositive() ? ttl.toNanos() : Long.MAX_VALUE;
+        this.nanoClock = nanoClock;
+    }
+
+    public synchronized V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry != null && isExpired(entry)) {
+            entries.remove(key);
+            bytes -= entry.weight();
+            expirations++;
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value();
+    }
+
+    public synchronized void put(K key, V value) {
+        long weight = weigher.applyAsLong(value);
+        if (weight > maxBytes) {
+            return;
+        }
+        long now = nanoClock.getAsLong();
+        long expiresAt = ttlNanos == Long.MAX_VALUE ? Long.MAX_VALUE : now + ttlNanos;
+        Entry<V> previous = entries.put(key, new Entry<>(value, weight, expiresAt));
+        if (previous != null) {
+            bytes -= previous.weight();
+        }
+        bytes += weight;
+        if (bytes > maxBytes && ttlNanos != Long.MAX_VALUE) {
+            removeExpired();
+        }
+        Iterator<Entry<V>> eldest = entries.values().iterator();
+        while (bytes > maxBytes) {
+            bytes -= eldest.next().weight();
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    private void removeExpired() {
+        Iterator<Entry<V>> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            Entry<V> entry = iterator.next();
+            if (isExpired(entry)) {
+                bytes -= entry.weight();
+                iterator.remove();
+                expirations++;
+            }
+        }
+    }
+
+    private boolean isExpired(Entry<V> entry) {
+        return entry.expiresAtNanos() != Long.MAX_VALUE && nanoClock.getAsLong() - entry.expiresAtNanos() >= 0;
+    }
+
+    public synchronized int invalidateIf(Predicate<K> predicate) {
+        int removed = 0;
+        Iterator<Map.Entry<K, Entry<V>>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<K, Entry<V>> entry = iterator.next();
+            if (predicate.test(entry.getKey())) {
+                bytes -= entry.getValue().weight();
+                iterator.remove();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    public synchronized void invalidateAll() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    public synchronized CacheStats getStats() {
+        return CacheStats.builder()
+                .name(name)
+                .entries(entries.size())
+                .bytes(bytes)
+                .maxBytes(maxBytes)
+                .hits(hits)
+                .misses(misses)
+                .evictions(evictions)
+                .expirations(expirations)
+                .hitRatio(hits + misses > 0 ? (double) hits / (hits + misses) : 0)
+                .build();
+    }
+
+    private record Entry<V>(V value, long weight, long expiresAtNanos) {
+    }
+}
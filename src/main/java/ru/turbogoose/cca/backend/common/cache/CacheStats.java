@@ -0,0 +1,18 @@
+package ru.turbogoose.cca.backend.common.cache;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class CacheStats {
+    private String name;
+    private int entries;
+    private long bytes;
+    private long maxBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+    private double hitRatio;
+}
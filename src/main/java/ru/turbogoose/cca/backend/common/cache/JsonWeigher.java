@@ -0,0 +1,42 @@
+package ru.turbogoose.cca.backend.common.cache;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Rough estimate of the heap occupied by a JSON tree: object headers plus two bytes per string character.
+ */
+public class JsonWeigher {
+    private static final long NODE_OVERHEAD = 24;
+    private static final long FIELD_OVERHEAD = 48;
+    private static final long STRING_OVERHEAD = 40;
+
+    public static long weigh(Iterable<JsonNode> nodes) {
+        long weight = NODE_OVERHEAD;
+        for (JsonNode node : nodes) {
+            weight += weigh(node);
+        }
+        return weight;
+    }
+
+    public static long weigh(JsonNode node) {
+        if (node.isTextual()) {
+            return NODE_OVERHEAD + STRING_OVERHEAD + 2L * node.textValue().length();
+        }
+        if (node.isObject()) {
+            long weight = NODE_OVERHEAD + FIELD_OVERHEAD;
+            Iterator<Map.Entry<String, JsonNode>> fields = node.fields();
+            while (fields.hasNext()) {
+                Map.Entry<String, JsonNode> field = fields.next();
+                weight += FIELD_OVERHEAD + STRING_OVERHEAD + 2L * field.getKey().length() + weigh(field.getValue());
+            }
+            return weight;
+        }
+        if (node.isArray()) {
+            return weigh((Iterable<JsonNode>) node);
+        }
+        return NODE_OVERHEAD;
+    }
+}
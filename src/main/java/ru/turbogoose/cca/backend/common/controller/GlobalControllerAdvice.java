@@ -11,6 +11,7 @@ import ru.turbogoose.cca.backend.common.exception.AlreadyExistsException;
 import ru.turbogoose.cca.backend.common.exception.CustomException;
 import ru.turbogoose.cca.backend.common.exception.NotFoundException;
 import ru.turbogoose.cca.backend.components.storage.exception.EnrichmentException;
+import ru.turbogoose.cca.backend.components.storage.exception.InsufficientStorageException;
 import ru.turbogoose.cca.backend.components.storage.exception.NotReadyException;
 import ru.turbogoose.cca.backend.components.storage.exception.SearcherException;
 import ru.turbogoose.cca.backend.components.storage.exception.StorageException;
@@ -46,6 +47,13 @@ public class GlobalControllerAdvice {
         return composeErrorResponse(exception.getUserMessage());
     }
 
+    @ExceptionHandler(InsufficientStorageException.class)
+    @ResponseStatus(HttpStatus.INSUFFICIENT_STORAGE)
+    public ErrorResponseDto handle(InsufficientStorageException exception) {
+        log.warn(exception.getMessage());
+        return composeErrorResponse(exception.getUserMessage());
+    }
+
     @ExceptionHandler({SearcherException.class, StorageException.class, EnrichmentException.class})
     @ResponseStatus(HttpStatus.INTERNAL_SERVER_ERROR)
     public ErrorResponseDto handle(CustomException exception) {
@@ -0,0 +1,73 @@
+package ru.turbogoose.cca.backend.common.util;
+
+import com.github.luben.zstd.ZstdInputStream;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Files written either as is or through {@link BlockCompressedOutputStream}. Compressed files are recognized
+ * by the zstd magic number, so readers do not need to know how the file was written.
+ */
+public class BlockCompressedFile {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int ZSTD_MAGIC = 0xFD2FB528;
+
+    /**
+     * @param level zstd compression level, or 0 to write the file uncompressed
+     */
+    public static OutputStream newOutputStream(Path path, int level) throws IOException {
+        OutputStream out = new BufferedOutputStream(Files.newOutputStream(path), BUFFER_SIZE);
+        return level > 0 ? new BlockCompressedOutputStream(out, level) : new CountingOutputStream(out);
+    }
+
+    /**
+     * Ends the current block of a compressed stream opened by {@link #newOutputStream}
+     *
+     * @return position in the file data written next can be read from with {@link #open}
+     */
+    public static long checkpoint(OutputStream out) throws IOException {
+        if (out instanceof BlockCompressedOutputStream compressed) {
+            return compressed.startBlock();
+        }
+        return ((CountingOutputStream) out).getCount();
+    }
+
+    public static boolean isCompressed(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path)) {
+            return isCompressed(channel);
+        }
+    }
+
+    /**
+     * Opens the file for reading from the given position, decompressing it if needed. Positions in compressed files
+     * must point to the start of a block.
+     */
+    public static InputStream open(Path path, long position) throws IOException {
+        FileChannel channel = FileChannel.open(path);
+        try {
+            boolean compressed = isCompressed(channel);
+            channel.position(position);
+            InputStream in = Channels.newInputStream(channel);
+            return compressed
+                    ? new BufferedInputStream(new ZstdInputStream(in), BUFFER_SIZE)
+                    : new BufferedInputStream(in, BUFFER_SIZE);
+        } catch (IOException exc) {
+            channel.close();
+            throw exc;
+        }
+    }
+
+    private static boolean isCompressed(FileChannel channel) throws IOException {
+        ByteBuffer magic = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        while (magic.hasRemaining() && channel.read(magic, magic.position()) > 0) {
+            // the magic number is read from the beginning regardless of the channel position
+        }
+        return !magic.hasRemaining() && magic.getInt(0) == ZSTD_MAGIC;
+    }
+}
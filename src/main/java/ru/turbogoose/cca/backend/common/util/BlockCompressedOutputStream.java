@@ -0,0 +1,104 @@
+package ru.turbogoose.cca.backend.common.util;
+
+import com.github.luben.zstd.Zstd;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Writes data as a sequence of independent zstd frames. A new frame is started on {@link #startBlock()},
+ * so the returned position can later be used to start decompressing from the middle of the file
+ * (see {@link BlockCompressedFile#open}). Blocks are also cut when they grow over {@code maxBlockSize}.
+ */
+public class BlockCompressedOutputStream extends OutputStream {
+    private static final int DEFAULT_MAX_BLOCK_SIZE = 4 * 1024 * 1024;
+
+    private final OutputStream out;
+    private final int level;
+    private final int maxBlockSize;
+    private byte[] block = new byte[64 * 1024];
+    private int blockSize;
+    private byte[] compressed = new byte[0];
+    private long position;
+    private long uncompressedBytes;
+
+    public BlockCompressedOutputStream(OutputStream out, int level) {
+        this(out, level, DEFAULT_MAX_BLOCK_SIZE);
+    }
+
+    public BlockCompressedOutputStream(OutputStream out, int level, int maxBlockSize) {
+        this.out = out;
+        this.level = level;
+        this.maxBlockSize = maxBlockSize;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureCapacity(1);
+        block[blockSize++] = (byte) b;
+        cutOversizedBlock();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        ensureCapacity(len);
+        System.arraycopy(b, off, block, blockSize, len);
+        blockSize += len;
+        cutOversizedBlock();
+    }
+
+    /**
+     * Compresses pending data into a frame of its own
+     *
+     * @return position in the underlying stream the next frame will start at
+     */
+    public long startBlock() throws IOException {
+        if (blockSize > 0) {
+            int bound = (int) Zstd.compressBound(blockSize);
+            if (compressed.length < bound) {
+                compressed = new byte[bound];
+            }
+            long size = Zstd.compressByteArray(compressed, 0, compressed.length, block, 0, blockSize, level);
+            if (Zstd.isError(size)) {
+                throw new IOException("Failed to compress block: " + Zstd.getErrorName(size));
+            }
+            out.write(compressed, 0, (int) size);
+            position += size;
+            uncompressedBytes += blockSize;
+            blockSize = 0;
+        }
+        return position;
+    }
+
+    public long getUncompressedBytes() {
+        return uncompressedBytes + blockSize;
+    }
+
+    /**
+     * Pending data is compressed only when the block is over, so flushing does not cut the block
+     */
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (out) {
+            startBlock();
+        }
+    }
+
+    private void cutOversizedBlock() throws IOException {
+        if (blockSize >= maxBlockSize) {
+            startBlock();
+        }
+    }
+
+    private void ensureCapacity(int extra) {
+        if (blockSize + extra > block.length) {
+            block = Arrays.copyOf(block, Math.max(blockSize + extra, block.length * 2));
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package ru.turbogoose.cca.backend.common.util;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Bounded buffer handing items from a producer thread over to a consumer reading them as a stream.
+ * The producer is blocked while the buffer is full. The consumer may cancel the pipe, after which
+ * all the produced items are silently dropped, so the producer can keep going on its own.
+ */
+public class BoundedPipe<T> {
+    private static final Object END = new Object();
+    private static final long POLL_TIMEOUT_MS = 100;
+
+    private final BlockingQueue<Object> queue;
+    private final CountDownLatch producerClosed = new CountDownLatch(1);
+    private volatile boolean cancelled;
+    private volatile boolean completed;
+    private volatile Throwable failure;
+
+    public BoundedPipe(int capacity) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Blocks while the buffer is full
+     *
+     * @return false if the item was dropped because the consumer cancelled the pipe
+     */
+    public boolean put(T item) {
+        return enqueue(item);
+    }
+
+    public void complete() {
+        completed = true;
+        closeProducer();
+    }
+
+    public void fail(Throwable cause) {
+        failure = cause;
+        closeProducer();
+    }
+
+    private void closeProducer() {
+        producerClosed.countDown();
+        enqueue(END);
+    }
+
+    private boolean enqueue(Object item) {
+        try {
+            while (!cancelled) {
+                if (queue.offer(item, POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+            return false;
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while writing into pipe", exc);
+        }
+    }
+
+    public void cancel() {
+        cancelled = true;
+        queue.clear();
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Waits until the producer completes or fails
+     *
+     * @return true if the producer completed successfully
+     */
+    public boolean awaitProducer() {
+        try {
+            producerClosed.await();
+            return completed;
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for pipe producer", exc);
+        }
+    }
+
+    /**
+     * Stream of produced items. It ends when the producer completes and throws when the producer fails.
+     */
+    public Stream<T> stream() {
+        Spliterator<T> spliterator = Spliterators.spliteratorUnknownSize(new PipeIterator(), Spliterator.ORDERED);
+        return StreamSupport.stream(spliterator, false);
+    }
+
+    private class PipeIterator implements Iterator<T> {
+        private Object next;
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                try {
+                    next = queue.take();
+                } catch (InterruptedException exc) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while reading from pipe", exc);
+                }
+            }
+            if (next == END) {
+                if (failure != null) {
+                    throw new IllegalStateException("Pipe producer failed", failure);
+                }
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            T item = (T) next;
+            next = null;
+            return item;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package ru.turbogoose.cca.backend.common.util;
+
+import com.github.luben.zstd.ZstdInputStream;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+public enum Compression {
+    NONE("", new byte[0]),
+    GZIP(".gz", new byte[]{(byte) 0x1f, (byte) 0x8b}),
+    ZSTD(".zst", new byte[]{(byte) 0x28, (byte) 0xb5, (byte) 0x2f, (byte) 0xfd});
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String suffix;
+    private final byte[] magic;
+
+    Compression(String suffix, byte[] magic) {
+        this.suffix = suffix;
+        this.magic = magic;
+    }
+
+    public static Compression fromFilename(String filename) {
+        for (Compression compression : values()) {
+            if (compression != NONE && filename.endsWith(compression.suffix)) {
+                return compression;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Detects compression by the magic number at the beginning of the stream
+     *
+     * @param in stream supporting {@link InputStream#mark}
+     */
+    public static Compression detect(InputStream in) throws IOException {
+        in.mark(4);
+        byte[] header = in.readNBytes(4);
+        in.reset();
+        for (Compression compression : values()) {
+            if (compression != NONE && header.length >= compression.magic.length
+                    && Arrays.equals(header, 0, compression.magic.length, compression.magic, 0, compression.magic.length)) {
+                return compression;
+            }
+        }
+        return NONE;
+    }
+
+    public String removeSuffix(String filename) {
+        return filename.substring(0, filename.length() - suffix.length());
+    }
+
+    public InputStream decompress(InputStream in) {
+        try {
+            return switch (this) {
+                case NONE -> in;
+                case GZIP -> new GZIPInputStream(in, BUFFER_SIZE);
+                case ZSTD -> new BufferedInputStream(new ZstdInputStream(in), BUFFER_SIZE);
+            };
+        } catch (IOException exc) {
+            throw new UncheckedIOException(exc);
+        }
+    }
+}
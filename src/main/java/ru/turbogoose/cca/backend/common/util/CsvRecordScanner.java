@@ -0,0 +1,71 @@
+package ru.turbogoose.cca.backend.common.util;
+
+/**
+ * Finds record boundaries in CSV bytes without parsing the values. Quotes are treated the same way
+ * the commons-csv lexer treats them with the default format: a quote opens a quoted value only at the start
+ * of a field (right after a delimiter, a line break or the start of the input), two quotes inside a quoted value
+ * are an escaped quote, and a quote anywhere else is a plain character.
+ * The input is expected to be in UTF-8 (or any other ASCII-compatible encoding). Not thread-safe.
+ */
+public class CsvRecordScanner {
+    private enum State {
+        FIELD_START, UNQUOTED, QUOTED, QUOTE_IN_QUOTED
+    }
+
+    private State state = State.FIELD_START;
+
+    /**
+     * Feeds the next byte of the input
+     *
+     * @return true if the byte is a line break ending a record
+     */
+    public boolean isRecordEnd(int b) {
+        switch (state) {
+            case QUOTED -> {
+                if (b == '"') {
+                    state = State.QUOTE_IN_QUOTED;
+                }
+                return false;
+            }
+            case QUOTE_IN_QUOTED -> {
+                if (b == '"') {
+                    // escaped quote, the value goes on
+                    state = State.QUOTED;
+                    return false;
+                }
+            }
+            case FIELD_START -> {
+                if (b == '"') {
+                    state = State.QUOTED;
+                    return false;
+                }
+            }
+            case UNQUOTED -> {
+            }
+        }
+        if (b == ',' || b == '\r') {
+            state = State.FIELD_START;
+            return false;
+        }
+        if (b == '\n') {
+            state = State.FIELD_START;
+            return true;
+        }
+        state = State.UNQUOTED;
+        return false;
+    }
+
+    /**
+     * @return true if the bytes fed so far end inside a quoted value
+     */
+    public boolean isQuoted() {
+        return state == State.QUOTED;
+    }
+
+    /**
+     * Starts scanning anew, e.g. from the beginning of another record
+     */
+    public void reset() {
+        state = State.FIELD_START;
+    }
+}
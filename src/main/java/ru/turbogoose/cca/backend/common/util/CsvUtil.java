@@ -9,8 +9,12 @@ import org.apache.commons.csv.CSVPrinter;
 import org.apache.commons.csv.CSVRecord;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.function.LongConsumer;
 import java.util.stream.Stream;
 
 public class CsvUtil {
@@ -18,27 +22,123 @@ public class CsvUtil {
 
     public static Stream<CSVRecord> readCsvStreamFromFile(String storagePath) {
         try {
-            return transferToCsvStream(new FileInputStream(storagePath));
+            return transferToCsvStream(BlockCompressedFile.open(Path.of(storagePath), 0));
         } catch (IOException exc) {
             throw new UncheckedIOException(exc);
         }
     }
 
+    public static Stream<CSVRecord> readCsvStreamFromFile(String storagePath, FileReadMode readMode) {
+        try {
+            return transferToCsvStream(openReader(storagePath, 0, readMode));
+        } catch (IOException exc) {
+            throw new UncheckedIOException(exc);
+        }
+    }
+
+    public static List<String> readCsvHeaderNames(String storagePath) {
+        CSVFormat csvFormat = CSVFormat.DEFAULT.builder()
+                .setHeader().setSkipHeaderRecord(true)
+                .setIgnoreEmptyLines(true)
+                .build();
+        try (CSVParser parser = csvFormat.parse(openReader(storagePath, 0, FileReadMode.STREAM))) {
+            return parser.getHeaderNames();
+        } catch (IOException exc) {
+            throw new UncheckedIOException(exc);
+        }
+    }
+
+    /**
+     * Reads records starting from the given byte position of the file, which must point to the start of a record
+     *
+     * @param headerNames names of the columns, as the header of the file is not read
+     */
+    public static Stream<CSVRecord> readCsvStreamFromFile(String storagePath, long position, List<String> headerNames) {
+        return readCsvStreamFromFile(storagePath, position, headerNames, FileReadMode.STREAM);
+    }
+
+    public static Stream<CSVRecord> readCsvStreamFromFile(String storagePath, long position, List<String> headerNames,
+                                                          FileReadMode readMode) {
+        try {
+            Reader in = openReader(storagePath, position, readMode);
+            CSVFormat csvFormat = CSVFormat.DEFAULT.builder()
+                    .setHeader(headerNames.toArray(new String[0]))
+                    .setIgnoreEmptyLines(true)
+                    .build();
+            CSVParser parser = csvFormat.parse(in);
+            return parser.stream()
+                    .onClose(() -> closeParser(parser));
+        } catch (IOException exc) {
+            throw new UncheckedIOException(exc);
+        }
+    }
+
+    /**
+     * Block-compressed files are always decompressed from a regular stream, regardless of the read mode
+     */
+    private static Reader openReader(String storagePath, long position, FileReadMode readMode) throws IOException {
+        Path path = Path.of(storagePath);
+        if (BlockCompressedFile.isCompressed(path)) {
+            return new InputStreamReader(BlockCompressedFile.open(path, position), StandardCharsets.UTF_8);
+        }
+        return readMode.open(path, position);
+    }
+
     public static Stream<CSVRecord> transferToCsvStream(InputStream inputStream) {
+        return transferToCsvStream(new InputStreamReader(inputStream));
+    }
+
+    private static Stream<CSVRecord> transferToCsvStream(Reader in) {
         try {
-            Reader in = new InputStreamReader(inputStream);
             CSVFormat csvFormat = CSVFormat.DEFAULT.builder()
                     .setHeader().setSkipHeaderRecord(true)
                     .setIgnoreEmptyLines(true)
                     .build();
             CSVParser parser = csvFormat.parse(in);
-            return parser.stream();
+            return parser.stream()
+                    .onClose(() -> closeParser(parser));
+        } catch (IOException exc) {
+            throw new UncheckedIOException(exc);
+        }
+    }
+
+    /**
+     * @param parallelism number of threads parsing the input; values greater than 1 enable chunked parallel parsing
+     */
+    public static Stream<CSVRecord> transferToCsvStream(InputStream inputStream, int parallelism) {
+        if (parallelism > 1) {
+            return ParallelCsvParser.parse(inputStream, parallelism);
+        }
+        return transferToCsvStream(inputStream);
+    }
+
+    private static void closeParser(CSVParser parser) {
+        try {
+            parser.close();
         } catch (IOException exc) {
             throw new UncheckedIOException(exc);
         }
     }
 
     public static void writeCsvStreamToFile(Stream<CSVRecord> dataStream, String storagePath) {
+        writeCsvStreamToFile(dataStream, storagePath, 0, position -> {});
+    }
+
+    public static void writeCsvStreamToFile(Stream<CSVRecord> dataStream, String storagePath,
+                                            int checkpointInterval, LongConsumer checkpointListener) {
+        writeCsvStreamToFile(dataStream, storagePath, checkpointInterval, checkpointListener, 0);
+    }
+
+    /**
+     * @param checkpointInterval number of rows between checkpoints, 0 disables them
+     * @param checkpointListener receives byte positions in the file of every {@code checkpointInterval}-th row
+     *                           (starting from the first one)
+     * @param compressionLevel   zstd level the file is block-compressed with (each checkpoint starts a new block),
+     *                           or 0 to write plain CSV
+     */
+    public static void writeCsvStreamToFile(Stream<CSVRecord> dataStream, String storagePath,
+                                            int checkpointInterval, LongConsumer checkpointListener,
+                                            int compressionLevel) {
         try (dataStream) {
             Iterator<CSVRecord> iterator = dataStream.iterator();
             if (!iterator.hasNext()) {
@@ -50,11 +150,21 @@ public class CsvUtil {
                     .setHeader(record.getParser().getHeaderNames().toArray(new String[0]))
                     .setIgnoreEmptyLines(true)
                     .build();
-            try (CSVPrinter csvPrinter = new CSVPrinter(new FileWriter(storagePath), csvFormat)) {
-                csvPrinter.printRecord(record);
-                while (iterator.hasNext()) {
-                    record = iterator.next();
+            OutputStream out = BlockCompressedFile.newOutputStream(Path.of(storagePath), compressionLevel);
+            try (CSVPrinter csvPrinter = new CSVPrinter(new OutputStreamWriter(out, StandardCharsets.UTF_8), csvFormat)) {
+                long rowNum = 0;
+                while (true) {
+                    if (checkpointInterval > 0 && rowNum % checkpointInterval == 0) {
+                        // flush encoded characters to get exact byte position of the row
+                        csvPrinter.flush();
+                        checkpointListener.accept(BlockCompressedFile.checkpoint(out));
+                    }
                     csvPrinter.printRecord(record.stream());
+                    rowNum++;
+                    if (!iterator.hasNext()) {
+                        break;
+                    }
+                    record = iterator.next();
                 }
             }
         } catch (IOException exc) {
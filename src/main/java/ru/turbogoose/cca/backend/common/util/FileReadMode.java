@@ -0,0 +1,38 @@
+package ru.turbogoose.cca.backend.common.util;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+/**
+ * How text files are read: through a regular channel stream or through memory-mapped regions of the file.
+ * The mode only applies to uncompressed CSV files, block-compressed ones are always streamed.
+ * <p>
+ * Mapped regions are not released before they are garbage collected, so a deleted file keeps taking its disk space
+ * for a while after it was read with {@link #MMAP}, which is not seen by the disk budget of the storage.
+ */
+public enum FileReadMode {
+    STREAM {
+        @Override
+        public Reader open(Path path, long position) throws IOException {
+            FileChannel channel = FileChannel.open(path);
+            channel.position(position);
+            return new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8);
+        }
+    },
+    MMAP {
+        @Override
+        public Reader open(Path path, long position) throws IOException {
+            return new MappedFileReader(path, position);
+        }
+    };
+
+    /**
+     * Opens UTF-8 reader of the file starting from the given byte position
+     */
+    public abstract Reader open(Path path, long position) throws IOException;
+}
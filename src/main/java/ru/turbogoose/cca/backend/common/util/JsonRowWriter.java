@@ -0,0 +1,72 @@
+package ru.turbogoose.cca.backend.common.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.core.util.ByteArrayBuilder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+/**
+ * Writes rows of column values straight into JSON object bytes. The generator, its buffer and the encoded
+ * column names are reused for all rows, so no intermediate JSON tree is built for a row.
+ * Not thread-safe.
+ */
+public class JsonRowWriter {
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    private final SerializedString[] columns;
+    private final SerializedString rowNumField;
+    private final SerializedString keyField;
+    private final String keyValue;
+    private final ByteArrayBuilder buffer = new ByteArrayBuilder(1024);
+    private final JsonGenerator generator;
+
+    /**
+     * @param rowNumField name of the numeric field the row number is appended as, or null to omit it
+     */
+    public JsonRowWriter(List<String> columns, String rowNumField) {
+        this(columns, rowNumField, null, null);
+    }
+
+    /**
+     * @param keyField name of the string field appended to every row with the same value, or null to omit it
+     */
+    public JsonRowWriter(List<String> columns, String rowNumField, String keyField, String keyValue) {
+        this.columns = columns.stream().map(SerializedString::new).toArray(SerializedString[]::new);
+        this.rowNumField = rowNumField != null ? new SerializedString(rowNumField) : null;
+        this.keyField = keyField != null ? new SerializedString(keyField) : null;
+        this.keyValue = keyValue;
+        try {
+            this.generator = jsonFactory.createGenerator(buffer);
+        } catch (IOException exc) {
+            throw new UncheckedIOException(exc);
+        }
+        // rows are taken out of the buffer one by one, so they must not be separated
+        generator.setRootValueSeparator(null);
+    }
+
+    public byte[] write(String[] values, long rowNum) throws IOException {
+        generator.writeStartObject();
+        int count = Math.min(columns.length, values.length);
+        for (int i = 0; i < count; i++) {
+            generator.writeFieldName(columns[i]);
+            generator.writeString(values[i]);
+        }
+        if (rowNumField != null) {
+            generator.writeFieldName(rowNumField);
+            generator.writeNumber(rowNum);
+        }
+        if (keyField != null) {
+            generator.writeFieldName(keyField);
+            generator.writeString(keyValue);
+        }
+        generator.writeEndObject();
+        generator.flush();
+        byte[] json = buffer.toByteArray();
+        buffer.reset();
+        return json;
+    }
+}
@@ -0,0 +1,48 @@
+package ru.turbogoose.cca.backend.common.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Mutual exclusion per key. A lock is kept only while some thread holds or waits for it: threads are counted
+ * atomically with the map entry, so the entry is removed by the last one leaving and a lock is never handed out
+ * after it was dropped.
+ */
+public class KeyedLocks<K> {
+    private static final class CountedLock {
+        private final ReentrantLock lock = new ReentrantLock();
+        private int users;
+    }
+
+    private final Map<K, CountedLock> locks = new ConcurrentHashMap<>();
+
+    public void lock(K key) {
+        CountedLock counted = locks.compute(key, (k, existing) -> {
+            CountedLock lock = existing != null ? existing : new CountedLock();
+            lock.users++;
+            return lock;
+        });
+        counted.lock.lock();
+    }
+
+    /**
+     * Must be called by the thread holding the lock of the key
+     */
+    public void unlock(K key) {
+        locks.compute(key, (k, counted) -> {
+            if (counted == null || !counted.lock.isHeldByCurrentThread()) {
+                throw new IllegalMonitorStateException("Lock of key %s is not held by current thread".formatted(key));
+            }
+            counted.lock.unlock();
+            return --counted.users == 0 ? null : counted;
+        });
+    }
+
+    /**
+     * @return number of keys currently locked or waited for
+     */
+    public int size() {
+        return locks.size();
+    }
+}
@@ -0,0 +1,115 @@
+package ru.turbogoose.cca.backend.common.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+/**
+ * Reads UTF-8 text of a file through memory-mapped windows, so no read syscalls are made once a window is mapped.
+ * Bytes are bulk-copied from the mapped region into a small heap buffer before decoding, as the decoder is several
+ * times faster on array-backed buffers than on direct ones. Windows are mapped one after another, so files larger
+ * than the maximum mapping size are supported as well.
+ * <p>
+ * Java has no public way to unmap a region, so mapped windows outlive the reader until they are garbage collected.
+ * Until then the file keeps its disk space even if it was deleted, and its windows count towards the virtual memory
+ * of the process.
+ */
+public class MappedFileReader extends Reader {
+    public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+    private static final int DECODE_BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final int windowSize;
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private final ByteBuffer bytes = ByteBuffer.allocate(DECODE_BUFFER_SIZE).flip();
+    private MappedByteBuffer window;
+    private long windowStart;
+    private boolean eof;
+
+    public MappedFileReader(Path path, long position) throws IOException {
+        this(path, position, DEFAULT_WINDOW_SIZE);
+    }
+
+    public MappedFileReader(Path path, long position, int windowSize) throws IOException {
+        this.channel = FileChannel.open(path);
+        this.fileSize = channel.size();
+        this.windowSize = windowSize;
+        try {
+            map(position);
+        } catch (IOException exc) {
+            channel.close();
+            throw exc;
+        }
+    }
+
+    private void map(long position) throws IOException {
+        windowStart = Math.min(position, fileSize);
+        long length = Math.min(windowSize, fileSize - windowStart);
+        window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, length);
+    }
+
+    private boolean isLastWindow() {
+        return windowStart + window.limit() >= fileSize;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (window == null) {
+            throw new IOException("Reader closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+        while (out.position() == off && !eof) {
+            boolean endOfInput = !window.hasRemaining() && isLastWindow();
+            CoderResult result = decoder.decode(bytes, out, endOfInput);
+            if (result.isError()) {
+                result.throwException();
+            }
+            if (result.isUnderflow()) {
+                if (endOfInput) {
+                    decoder.flush(out);
+                    eof = true;
+                } else {
+                    fillBytes();
+                }
+            }
+        }
+        int read = out.position() - off;
+        return read == 0 && eof ? -1 : read;
+    }
+
+    /**
+     * Moves undecoded bytes (e.g. of a character split between windows) to the start of the buffer
+     * and appends the next portion of the mapped data after them
+     */
+    private void fillBytes() throws IOException {
+        if (!window.hasRemaining()) {
+            map(windowStart + window.limit());
+        }
+        bytes.compact();
+        int length = Math.min(bytes.remaining(), window.remaining());
+        bytes.put(window.slice(window.position(), length));
+        window.position(window.position() + length);
+        bytes.flip();
+    }
+
+    @Override
+    public void close() throws IOException {
+        // mapped regions are released by GC, as there is no way to unmap them explicitly
+        window = null;
+        channel.close();
+    }
+}
@@ -0,0 +1,225 @@
+package ru.turbogoose.cca.backend.common.util;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Splits CSV input into byte chunks that end on record boundaries and parses them concurrently on a fork-join pool.
+ * Records are emitted in the original order. Boundaries are found by {@link CsvRecordScanner}, so quoted values
+ * may contain line breaks. The input is expected to be in UTF-8 (or any other ASCII-compatible encoding).
+ */
+public class ParallelCsvParser implements Iterator<CSVRecord>, Closeable {
+    public static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+
+    private final ChunkSplitter splitter;
+    private final ForkJoinPool pool;
+    private final int window;
+    private final Deque<Future<List<CSVRecord>>> pending = new ArrayDeque<>();
+    private Iterator<CSVRecord> current = Collections.emptyIterator();
+    private CSVFormat recordFormat;
+
+    private ParallelCsvParser(InputStream in, int parallelism, int chunkSize) {
+        this.splitter = new ChunkSplitter(in, chunkSize);
+        this.pool = new ForkJoinPool(parallelism);
+        this.window = parallelism * 2;
+    }
+
+    /**
+     * @apiNote Returned stream must be explicitly closed
+     */
+    public static Stream<CSVRecord> parse(InputStream in, int parallelism) {
+        return parse(in, parallelism, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @apiNote Returned stream must be explicitly closed
+     */
+    public static Stream<CSVRecord> parse(InputStream in, int parallelism, int chunkSize) {
+        ParallelCsvParser parser = new ParallelCsvParser(in, parallelism, chunkSize);
+        Spliterator<CSVRecord> spliterator = Spliterators.spliteratorUnknownSize(parser,
+                Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false)
+                .onClose(parser::closeUnchecked);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!current.hasNext()) {
+            submitChunks();
+            if (pending.isEmpty()) {
+                return false;
+            }
+            current = await(pending.poll()).iterator();
+        }
+        return true;
+    }
+
+    @Override
+    public CSVRecord next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current.next();
+    }
+
+    private void submitChunks() {
+        try {
+            while (pending.size() < window && splitter.hasNext()) {
+                Chunk chunk = splitter.next();
+                if (recordFormat == null) {
+                    pending.add(pool.submit(() -> parseFirstChunk(chunk)));
+                    // header names are needed to parse the rest of chunks
+                    await(pending.peekLast());
+                } else {
+                    CSVFormat format = recordFormat;
+                    pending.add(pool.submit(() -> parseChunk(chunk, format)));
+                }
+            }
+        } catch (IOException exc) {
+            throw new UncheckedIOException(exc);
+        }
+    }
+
+    private List<CSVRecord> parseFirstChunk(Chunk chunk) throws IOException {
+        CSVFormat headerFormat = CSVFormat.DEFAULT.builder()
+                .setHeader().setSkipHeaderRecord(true)
+                .setIgnoreEmptyLines(true)
+                .build();
+        CSVParser parser = headerFormat.parse(chunk.reader());
+        recordFormat = CSVFormat.DEFAULT.builder()
+                .setHeader(parser.getHeaderNames().toArray(new String[0]))
+                .setIgnoreEmptyLines(true)
+                .build();
+        return parser.getRecords();
+    }
+
+    private List<CSVRecord> parseChunk(Chunk chunk, CSVFormat format) throws IOException {
+        return format.parse(chunk.reader()).getRecords();
+    }
+
+    private List<CSVRecord> await(Future<List<CSVRecord>> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for CSV chunk to be parsed", exc);
+        } catch (ExecutionException exc) {
+            Throwable cause = exc.getCause();
+            if (cause instanceof IOException ioExc) {
+                throw new UncheckedIOException(ioExc);
+            }
+            if (cause instanceof RuntimeException runtimeExc) {
+                throw runtimeExc;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        pool.shutdownNow();
+        pending.clear();
+        splitter.close();
+    }
+
+    private void closeUnchecked() {
+        try {
+            close();
+        } catch (IOException exc) {
+            throw new UncheckedIOException(exc);
+        }
+    }
+
+    public record Chunk(byte[] data, int length) {
+        public Reader reader() {
+            return new InputStreamReader(new ByteArrayInputStream(data, 0, length), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Reads the input sequentially and cuts it into chunks, each of them ending right after the last line break
+     * that is not enclosed in quotes. The tail after that line break is carried over to the next chunk.
+     */
+    public static class ChunkSplitter implements Closeable {
+        private final InputStream in;
+        private final int chunkSize;
+        private byte[] carry = new byte[0];
+        private int carryLength;
+        private boolean eof;
+
+        public ChunkSplitter(InputStream in, int chunkSize) {
+            this.in = in;
+            this.chunkSize = chunkSize;
+        }
+
+        public boolean hasNext() {
+            return !eof || carryLength > 0;
+        }
+
+        public Chunk next() throws IOException {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            byte[] buffer = new byte[carryLength + chunkSize];
+            System.arraycopy(carry, 0, buffer, 0, carryLength);
+            int length = carryLength;
+            while (true) {
+                length = readFully(buffer, length);
+                if (eof) {
+                    carryLength = 0;
+                    return new Chunk(buffer, length);
+                }
+                int boundary = findLastRecordBoundary(buffer, length);
+                if (boundary > 0) {
+                    carryLength = length - boundary;
+                    carry = Arrays.copyOfRange(buffer, boundary, length);
+                    return new Chunk(buffer, boundary);
+                }
+                // a single record is larger than the buffer, so grow it and read further
+                buffer = Arrays.copyOf(buffer, buffer.length + chunkSize);
+            }
+        }
+
+        private int readFully(byte[] buffer, int offset) throws IOException {
+            while (offset < buffer.length) {
+                int read = in.read(buffer, offset, buffer.length - offset);
+                if (read == -1) {
+                    eof = true;
+                    break;
+                }
+                offset += read;
+            }
+            return offset;
+        }
+
+        /**
+         * @return position right after the last unquoted line break, or 0 if there is none
+         */
+        static int findLastRecordBoundary(byte[] buffer, int length) {
+            // buffer always starts with a record, as it is cut right after record boundaries
+            CsvRecordScanner scanner = new CsvRecordScanner();
+            int boundary = 0;
+            for (int i = 0; i < length; i++) {
+                if (scanner.isRecordEnd(buffer[i])) {
+                    boundary = i + 1;
+                }
+            }
+            return boundary;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
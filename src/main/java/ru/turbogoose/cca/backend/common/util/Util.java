@@ -1,7 +1,12 @@
 package ru.turbogoose.cca.backend.common.util;
 
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class Util {
     public static final String NOT_FOUND = "NOT_FOUND";
@@ -26,5 +31,22 @@ public class Util {
         return NOT_FOUND;
     }
 
-
+    /**
+     * Returns a stream opened only when its consumer starts reading it, so failures to open it are thrown
+     * to the consumer along with any other read errors. The opened stream is closed together with the returned one.
+     */
+    public static <T> Stream<T> openLazily(Supplier<Stream<T>> opener) {
+        AtomicReference<Stream<T>> opened = new AtomicReference<>();
+        return StreamSupport.stream(() -> {
+                    Stream<T> stream = opener.get();
+                    opened.set(stream);
+                    return stream.spliterator();
+                }, Spliterator.ORDERED, false)
+                .onClose(() -> {
+                    Stream<T> stream = opened.get();
+                    if (stream != null) {
+                        stream.close();
+                    }
+                });
+    }
 }
@@ -24,6 +24,7 @@ public class Dataset {
     private String name;
     @Column(nullable = false)
     private Long size;
+    private Long compressedSize;
     private Long totalRows;
     @Column(nullable = false)
     private LocalDateTime created;
@@ -3,45 +3,73 @@ package ru.turbogoose.cca.backend.components.datasets;
 import com.fasterxml.jackson.databind.JsonNode;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 import org.springframework.web.multipart.MultipartFile;
 import ru.turbogoose.cca.backend.components.annotations.AnnotationService;
 import ru.turbogoose.cca.backend.components.annotations.dto.AnnotationDto;
+import ru.turbogoose.cca.backend.components.datasets.dto.DatasetProgressResponseDto;
 import ru.turbogoose.cca.backend.components.datasets.dto.DatasetResponseDto;
 import ru.turbogoose.cca.backend.components.datasets.dto.DatasetTableInfoResponseDto;
 import ru.turbogoose.cca.backend.components.datasets.dto.SearchReadinessResponseDto;
 import ru.turbogoose.cca.backend.components.datasets.util.FileExtension;
+import ru.turbogoose.cca.backend.components.storage.SearchCursor;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.time.Duration;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @RequiredArgsConstructor
 @RestController
 @CrossOrigin
 @RequestMapping("/api/datasets")
 public class DatasetController {
+    private static final Duration ASYNC_TIMEOUT_MARGIN = Duration.ofSeconds(10);
+
     private final DatasetService datasetService;
     private final AnnotationService annotationService;
 
+    @Value("${elasticsearch.query.timeout:1m}")
+    private Duration queryTimeout;
+
     @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE)
     public List<DatasetResponseDto> getAllDatasets() {
         return datasetService.getAllDatasets();
     }
 
     @PostMapping(consumes = {"multipart/form-data"}, produces = MediaType.APPLICATION_JSON_VALUE)
-    public DatasetResponseDto uploadDataset(@RequestPart("file") MultipartFile file) {
-        return datasetService.uploadDataset(file);
+    public DatasetResponseDto uploadDataset(@RequestPart("file") MultipartFile file,
+                                            @RequestParam(defaultValue = "0") int priority) {
+        return datasetService.uploadDataset(file, priority);
+    }
+
+    @PostMapping(consumes = {"text/csv", MediaType.APPLICATION_OCTET_STREAM_VALUE},
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public DatasetResponseDto uploadDatasetStream(@RequestParam String filename,
+                                                  @RequestHeader(value = HttpHeaders.CONTENT_LENGTH, required = false)
+                                                  Long contentLength,
+                                                  @RequestParam(defaultValue = "0") int priority,
+                                                  InputStream body) {
+        return datasetService.uploadDataset(filename, body, contentLength != null ? contentLength : -1, priority);
     }
 
     @GetMapping(value = "/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
-    public void getDatasetPage(@PathVariable int id, Pageable pageable, HttpServletResponse response) throws IOException {
+    public DeferredResult<byte[]> getDatasetPage(@PathVariable int id, Pageable pageable) {
         Dataset dataset = datasetService.getDatasetByIdOrThrow(id);
-        try (OutputStream out = response.getOutputStream()) {
-            datasetService.getDatasetPage(dataset, pageable, out);
-        }
+        return defer(datasetService.getDatasetPage(dataset, pageable));
+    }
+
+    @GetMapping(value = "/{id}/progress", produces = MediaType.APPLICATION_JSON_VALUE)
+    public DatasetProgressResponseDto getProgress(@PathVariable int id) {
+        return datasetService.getDatasetProgress(id);
     }
 
     @GetMapping(value = "/{id}/table-info", produces = MediaType.APPLICATION_JSON_VALUE)
@@ -70,8 +98,39 @@ public class DatasetController {
     }
 
     @GetMapping(value = "/{id}/search", produces = MediaType.APPLICATION_JSON_VALUE)
-    public JsonNode search(@PathVariable int id, @RequestParam String query, Pageable pageable) {
-        return datasetService.search(id, query, pageable);
+    public DeferredResult<JsonNode> search(@PathVariable int id, @RequestParam String query, Pageable pageable,
+                                           @RequestParam(required = false) String cursor,
+                                           @RequestParam(defaultValue = "false") boolean pinned) {
+        // cursor mode is requested with an empty cursor for the first page and continued with the returned ones
+        if (cursor != null) {
+            return defer(datasetService.searchAfterAsync(
+                    id, query, SearchCursor.decode(cursor), pageable.getPageSize(), pinned));
+        }
+        return defer(datasetService.search(id, query, pageable));
+    }
+
+    /**
+     * Releases the request thread while the result is being prepared, failures are handled by the controller advice
+     */
+    private <T> DeferredResult<T> defer(CompletableFuture<T> future) {
+        DeferredResult<T> result = newDeferredResult();
+        future.whenComplete((value, exc) -> {
+            if (exc != null) {
+                result.setErrorResult(exc instanceof CompletionException && exc.getCause() != null
+                        ? exc.getCause() : exc);
+            } else {
+                result.setResult(value);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Async requests time out after the query timeout and a margin for fetching and composing the result,
+     * rather than after the default timeout of the servlet container
+     */
+    private <T> DeferredResult<T> newDeferredResult() {
+        return new DeferredResult<>(queryTimeout.plus(ASYNC_TIMEOUT_MARGIN).toMillis());
     }
 
     @GetMapping(value = "/{id}/download", produces = {"application/csv", "application/json"})
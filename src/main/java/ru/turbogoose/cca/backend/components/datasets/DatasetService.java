@@ -4,41 +4,61 @@ import com.fasterxml.jackson.databind.JsonNode;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.csv.CSVRecord;
+import org.hibernate.Hibernate;
 import org.modelmapper.ModelMapper;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
-import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 import ru.turbogoose.cca.backend.common.exception.AlreadyExistsException;
 import ru.turbogoose.cca.backend.common.exception.NotFoundException;
+import ru.turbogoose.cca.backend.common.util.BoundedPipe;
+import ru.turbogoose.cca.backend.common.util.Compression;
+import ru.turbogoose.cca.backend.common.util.CountingInputStream;
 import ru.turbogoose.cca.backend.common.util.CsvUtil;
 import ru.turbogoose.cca.backend.common.util.LongCounter;
+import ru.turbogoose.cca.backend.common.util.Util;
 import ru.turbogoose.cca.backend.components.annotations.AnnotationService;
 import ru.turbogoose.cca.backend.components.annotations.model.Annotation;
+import ru.turbogoose.cca.backend.components.datasets.dto.DatasetProgressResponseDto;
 import ru.turbogoose.cca.backend.components.datasets.dto.DatasetResponseDto;
 import ru.turbogoose.cca.backend.components.datasets.dto.DatasetTableInfoResponseDto;
 import ru.turbogoose.cca.backend.components.datasets.dto.SearchReadinessResponseDto;
+import ru.turbogoose.cca.backend.components.datasets.dto.StorageProgressResponseDto;
 import ru.turbogoose.cca.backend.components.datasets.util.FileExtension;
+import ru.turbogoose.cca.backend.components.migrations.MigrationScheduler;
+import ru.turbogoose.cca.backend.components.storage.RowSink;
+import ru.turbogoose.cca.backend.components.storage.RowSource;
+import ru.turbogoose.cca.backend.components.storage.Rows;
+import ru.turbogoose.cca.backend.components.storage.SearchCursor;
 import ru.turbogoose.cca.backend.components.storage.Searcher;
 import ru.turbogoose.cca.backend.components.storage.Storage;
+import ru.turbogoose.cca.backend.components.storage.cache.PageCache;
+import ru.turbogoose.cca.backend.components.storage.cache.SearchCache;
 import ru.turbogoose.cca.backend.components.storage.enricher.AnnotationEnricher;
 import ru.turbogoose.cca.backend.components.storage.enricher.EnricherFactory;
 import ru.turbogoose.cca.backend.components.storage.exception.NotReadyException;
 import ru.turbogoose.cca.backend.components.storage.exception.StorageException;
+import ru.turbogoose.cca.backend.components.storage.filesystem.TempStorageJanitor;
 import ru.turbogoose.cca.backend.components.storage.info.StorageInfo;
 import ru.turbogoose.cca.backend.components.storage.info.StorageInfoHelper;
 import ru.turbogoose.cca.backend.components.storage.info.StorageMode;
+import ru.turbogoose.cca.backend.components.storage.progress.IngestionProgressTracker;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UncheckedIOException;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Stream;
 
 import static ru.turbogoose.cca.backend.common.util.Util.removeExtension;
@@ -49,6 +69,15 @@ import static ru.turbogoose.cca.backend.components.storage.info.StorageStatus.RE
 @Slf4j
 @RequiredArgsConstructor
 public class DatasetService {
+    @Value("${storage.ingestion.parallelism:1}")
+    private int ingestionParallelism;
+    @Value("${storage.ingestion.single-pass.enabled:false}")
+    private boolean singlePassIngestion;
+    @Value("${storage.ingestion.single-pass.buffer-size:10000}")
+    private int singlePassBufferSize;
+    @Value("${storage.ingestion.single-pass.min-size:67108864}")
+    private long singlePassMinSize;
+
     private final ModelMapper mapper;
     private final DatasetRepository datasetRepository;
     private final AnnotationService annotationService;
@@ -56,7 +85,11 @@ public class DatasetService {
     private final Storage<JsonNode, JsonNode> primaryStorage;
     private final Storage<CSVRecord, JsonNode> secondaryStorage;
     private final StorageInfoHelper storageInfoHelper;
-    private final ThreadPoolTaskExecutor taskExecutor;
+    private final MigrationScheduler migrationScheduler;
+    private final IngestionProgressTracker progressTracker;
+    private final PageCache pageCache;
+    private final SearchCache searchCache;
+    private final TempStorageJanitor storageJanitor;
 
     public List<DatasetResponseDto> getAllDatasets() {
         return datasetRepository.findAll().stream()
@@ -64,71 +97,186 @@ public class DatasetService {
                 .toList();
     }
 
-    private void validateDatasetFileExtension(String filename) {
-        if (filename == null || !filename.endsWith(".csv")) {
-            throw new IllegalArgumentException("Dataset must be provided in .csv format");
+    private Compression validateDatasetFileExtension(String filename) {
+        if (filename != null) {
+            Compression compression = Compression.fromFilename(filename);
+            if (compression.removeSuffix(filename).endsWith(".csv")) {
+                return compression;
+            }
         }
+        throw new IllegalArgumentException("Dataset must be provided in .csv format (optionally as .csv.gz or .csv.zst)");
     }
 
-    public DatasetResponseDto uploadDataset(MultipartFile file) {
-        validateDatasetFileExtension(file.getOriginalFilename());
-        String datasetName = removeExtension(file.getOriginalFilename());
+    public DatasetResponseDto uploadDataset(MultipartFile file, int priority) {
+        try {
+            return uploadDataset(file.getOriginalFilename(), file.getInputStream(), file.getSize(), priority);
+        } catch (IOException exc) {
+            throw new UncheckedIOException(exc);
+        }
+    }
+
+    /**
+     * Parses the upload while it is still being received and writes records straight into the secondary storage,
+     * so the data is not spooled to disk before ingestion starts.
+     *
+     * @param expectedSize size of the upload in bytes (as sent) used for progress estimation and disk space
+     *                     admission, or -1 if unknown
+     * @param priority     migration priority of the dataset, higher goes first
+     */
+    public DatasetResponseDto uploadDataset(String filename, InputStream inputStream, long expectedSize, int priority) {
+        Compression compression = validateDatasetFileExtension(filename);
+        try (TempStorageJanitor.Reservation ignored = storageJanitor.reserve(expectedSize, compression)) {
+            Dataset dataset = createDataset(filename);
+            return ingestUpload(dataset, inputStream, compression, expectedSize, priority);
+        }
+    }
+
+    /**
+     * Decompresses and parses the input as a stream and fills a new secondary storage of the dataset with it.
+     * With single-pass ingestion enabled the parsed rows are also fed into the primary storage at the same time,
+     * unless all migration slots are busy, in which case the migration is queued as usual. Uploads smaller than
+     * {@code storage.ingestion.single-pass.min-size} bytes (as sent) are always queued: the primary storage is then
+     * created knowing the number of rows, so small datasets can go to Lucene or the shared index.
+     */
+    public DatasetResponseDto ingestUpload(Dataset dataset, InputStream inputStream, Compression compression,
+                                           long expectedSize, int priority) {
+        String secondaryId = secondaryStorage.create();
+        StorageInfo secondaryInfo = attachStorage(dataset, secondaryId, StorageMode.SECONDARY);
+        log.debug("[{}] secondary storage created", dataset.getId());
+        boolean singlePass = singlePassIngestion && (expectedSize < 0 || expectedSize >= singlePassMinSize);
+        PrimaryIngestion primaryIngestion = singlePass && migrationScheduler.tryReserve()
+                ? startPrimaryIngestion(dataset, secondaryInfo)
+                : null;
+
+        try {
+            LongCounter rowCounter = new LongCounter(0);
+            CountingInputStream compressedByteCounter = new CountingInputStream(inputStream);
+            progressTracker.track(secondaryId).trackBytes(compressedByteCounter::getCount, expectedSize);
+            AtomicReference<CountingInputStream> byteCounter = new AtomicReference<>();
+            // decompressor and parser read the input right away, so they are opened by the storage filling it
+            // to fail the filling (and clean the storage up) on malformed input as on any other read error
+            Stream<CSVRecord> dataStream = Util.<CSVRecord>openLazily(() -> {
+                byteCounter.set(new CountingInputStream(compression.decompress(compressedByteCounter)));
+                return CsvUtil.transferToCsvStream(byteCounter.get(), ingestionParallelism);
+            }).peek(record -> rowCounter.increment());
+            if (primaryIngestion != null) {
+                BoundedPipe<JsonNode> pipe = primaryIngestion.pipe();
+                dataStream = dataStream.peek(record -> {
+                    if (!pipe.isCancelled()) {
+                        pipe.put(CsvUtil.csvRecordToJsonNode(record));
+                    }
+                });
+            }
+
+            secondaryStorage.fill(secondaryId, dataStream); // potentially long task
+            long size = byteCounter.get().getCount();
+            log.debug("[{}] data saved into secondary storage ({} rows, {} bytes)",
+                    dataset.getId(), rowCounter.get(), size);
+            Long compressedSize = compression != Compression.NONE ? compressedByteCounter.getCount() : null;
+            saveUploadMetrics(dataset, secondaryInfo, rowCounter.get(), size, compressedSize);
+            DatasetResponseDto response = mapper.map(dataset, DatasetResponseDto.class);
+            if (primaryIngestion != null) {
+                progressTracker.track(primaryIngestion.storageId()).setExpectedRows(rowCounter.get());
+                primaryIngestion.pipe().complete();
+            } else {
+                scheduleMigration(dataset, secondaryInfo, priority);
+            }
+            return response;
+
+        } catch (RuntimeException exc) {
+            // the primary task waits for rows until the pipe is closed, so it has to be failed on any error
+            if (primaryIngestion != null) {
+                primaryIngestion.pipe().fail(exc);
+                primaryIngestion.task().handle((result, failure) -> null).join();
+            }
+            discardUpload(dataset, secondaryInfo);
+            log.debug("[{}] upload discarded due to an ingestion error", dataset.getId());
+            throw exc;
+        }
+    }
+
+    public Dataset createDataset(String filename) {
+        Compression compression = validateDatasetFileExtension(filename);
+        String datasetName = removeExtension(compression.removeSuffix(filename));
         Dataset dataset = new Dataset();
         dataset.setName(datasetName);
-        dataset.setSize(file.getSize());
+        dataset.setSize(0L);
         dataset.setCreated(LocalDateTime.now());
 
         try {
             dataset = datasetRepository.save(dataset);
             log.debug("[{}] dataset metadata saved into db", dataset.getId());
+            return dataset;
         } catch (DataIntegrityViolationException exc) {
             throw new AlreadyExistsException("Dataset with this name already exists",
                     "Dataset with name %s already exists".formatted(datasetName), exc);
         }
-        String secondaryId = secondaryStorage.create();
-        StorageInfo secondaryInfo = storageInfoHelper.getInfoByStorageIdOrThrow(secondaryId);
-        secondaryInfo.setMode(StorageMode.SECONDARY);
-        dataset.addStorage(secondaryInfo);
-        storageInfoHelper.getStorageInfoRepository().save(secondaryInfo);
-        log.debug("[{}] secondary storage created", dataset.getId());
-
-        try {
-            LongCounter rowCounter = new LongCounter(0);
-            Stream<CSVRecord> dataStream = CsvUtil.transferToCsvStream(file.getInputStream())
-                    .peek(record -> rowCounter.increment());
+    }
 
-            secondaryStorage.fill(secondaryId, dataStream); // potentially long task
-            log.debug("[{}] data saved into secondary storage", dataset.getId());
+    public StorageInfo attachStorage(Dataset dataset, String storageId, StorageMode mode) {
+        StorageInfo storageInfo = storageInfoHelper.getInfoByStorageIdOrThrow(storageId);
+        storageInfo.setMode(mode);
+        dataset.addStorage(storageInfo);
+        storageInfoHelper.getStorageInfoRepository().save(storageInfo);
+        return storageInfo;
+    }
 
-            dataset.setTotalRows(rowCounter.get());
-            datasetRepository.save(dataset);
+    /**
+     * Records final dataset metrics once the secondary storage is filled and schedules migration to the primary one
+     */
+    public DatasetResponseDto completeUpload(Dataset dataset, StorageInfo secondaryInfo,
+                                             long totalRows, long size, Long compressedSize, int priority) {
+        saveUploadMetrics(dataset, secondaryInfo, totalRows, size, compressedSize);
+        scheduleMigration(dataset, secondaryInfo, priority);
+        return mapper.map(dataset, DatasetResponseDto.class);
+    }
 
-            final Dataset finalDataset = dataset;
-            taskExecutor.execute(() -> migrateSecondaryStorageToPrimary(finalDataset, secondaryInfo));
-            return mapper.map(dataset, DatasetResponseDto.class);
+    private void saveUploadMetrics(Dataset dataset, StorageInfo secondaryInfo,
+                                   long totalRows, long size, Long compressedSize) {
+        storageInfoHelper.updateStatus(secondaryInfo);
+        dataset.setTotalRows(totalRows);
+        dataset.setSize(size);
+        dataset.setCompressedSize(compressedSize);
+        datasetRepository.save(dataset);
+    }
 
-        } catch (StorageException exc) {
-            dataset.removeStorage(secondaryInfo);
-            datasetRepository.delete(dataset);
-            log.debug("[{}] secondary storage deleted due to a filling error", dataset.getId());
-            throw exc;
+    public void detachStorage(Dataset dataset, StorageInfo storageInfo) {
+        dataset.removeStorage(storageInfo);
+        storageInfoHelper.getStorageInfoRepository().delete(storageInfo);
+    }
 
-        } catch (IOException exc) {
-            throw new UncheckedIOException(exc);
+    /**
+     * Deletes the dataset together with its secondary storage. Storages which are not filled are left alone,
+     * as failed filling cleans the storage up by itself.
+     */
+    public void discardUpload(Dataset dataset, StorageInfo secondaryInfo) {
+        String secondaryId = secondaryInfo.getStorageId();
+        try {
+            if (secondaryStorage.isStorageReady(secondaryId)) {
+                secondaryStorage.delete(secondaryId);
+            }
+        } catch (RuntimeException exc) {
+            log.warn("[{}] failed to delete secondary storage {} of discarded upload",
+                    dataset.getId(), secondaryId, exc);
         }
+        dataset.removeStorage(secondaryInfo);
+        datasetRepository.delete(dataset);
+    }
+
+    private void scheduleMigration(Dataset dataset, StorageInfo secondaryInfo, int priority) {
+        migrationScheduler.schedule(dataset.getId(), dataset.getSize(), priority,
+                () -> migrateSecondaryStorageToPrimary(dataset, secondaryInfo));
     }
 
     private void migrateSecondaryStorageToPrimary(Dataset dataset, StorageInfo secondaryInfo) {
         String secondaryId = secondaryInfo.getStorageId();
-        String primaryId = primaryStorage.create();
-        StorageInfo primaryInfo = storageInfoHelper.getInfoByStorageIdOrThrow(primaryId);
-        primaryInfo.setMode(StorageMode.PRIMARY);
-        dataset.addStorage(primaryInfo);
-        storageInfoHelper.getStorageInfoRepository().save(primaryInfo);
+        String primaryId = primaryStorage.create(dataset.getTotalRows());
+        StorageInfo primaryInfo = attachStorage(dataset, primaryId, StorageMode.PRIMARY);
         log.debug("[{}] primary storage created", dataset.getId());
+        progressTracker.track(primaryId).setExpectedRows(dataset.getTotalRows());
 
-        try (Stream<JsonNode> dataStream = secondaryStorage.getAll(secondaryId)) {
-            primaryStorage.fill(primaryId, dataStream); // potentially long task
+        try {
+            copyRows(secondaryId, primaryId); // potentially long task
             log.debug("[{}] data migrated to primary storage", dataset.getId());
         } catch (StorageException exc) {
             dataset.removeStorage(primaryInfo);
@@ -136,23 +284,99 @@ public class DatasetService {
             log.debug("[{}] primary storage deleted due to a filling error", dataset.getId());
             throw exc;
         }
+        switchToPrimaryStorage(dataset, secondaryInfo, primaryInfo);
+    }
+
+    /**
+     * Rows are passed as plain values when both storages support it, so no JSON tree is built for a row
+     */
+    private void copyRows(String secondaryId, String primaryId) {
+        if (secondaryStorage instanceof RowSource source && primaryStorage instanceof RowSink sink) {
+            try (Rows rows = source.getAllRows(secondaryId)) {
+                sink.fillRows(primaryId, rows);
+            }
+        } else {
+            try (Stream<JsonNode> dataStream = secondaryStorage.getAll(secondaryId)) {
+                primaryStorage.fill(primaryId, dataStream);
+            }
+        }
+    }
+
+    /**
+     * Primary storage is created in advance (so the dataset entity is not modified concurrently with the upload)
+     * and filled by a background task reading rows from the pipe. The task runs in a migration slot reserved in advance.
+     */
+    private PrimaryIngestion startPrimaryIngestion(Dataset dataset, StorageInfo secondaryInfo) {
+        String primaryId;
+        StorageInfo primaryInfo;
+        try {
+            primaryId = primaryStorage.create();
+            primaryInfo = attachStorage(dataset, primaryId, StorageMode.PRIMARY);
+        } catch (RuntimeException exc) {
+            migrationScheduler.release();
+            throw exc;
+        }
+        log.debug("[{}] primary storage created for single-pass ingestion", dataset.getId());
+        BoundedPipe<JsonNode> pipe = new BoundedPipe<>(singlePassBufferSize);
+        CompletableFuture<Void> task = migrationScheduler.runReserved(dataset.getId(),
+                () -> ingestIntoPrimaryStorage(dataset, secondaryInfo, primaryInfo, pipe));
+        return new PrimaryIngestion(primaryId, pipe, task);
+    }
+
+    private void ingestIntoPrimaryStorage(Dataset dataset, StorageInfo secondaryInfo, StorageInfo primaryInfo,
+                                          BoundedPipe<JsonNode> pipe) {
+        try (Stream<JsonNode> dataStream = pipe.stream()) {
+            primaryStorage.fill(primaryInfo.getStorageId(), dataStream); // potentially long task
+            log.debug("[{}] data ingested into primary storage in a single pass", dataset.getId());
+        } catch (StorageException exc) {
+            pipe.cancel();
+            // the dataset entity is owned by the upload until it is over
+            if (!pipe.awaitProducer()) {
+                log.debug("[{}] primary storage deleted together with failed upload", dataset.getId());
+                return;
+            }
+            dataset.removeStorage(primaryInfo);
+            datasetRepository.save(dataset);
+            log.warn("[{}] single-pass ingestion into primary storage failed, falling back to migration",
+                    dataset.getId(), exc);
+            migrateSecondaryStorageToPrimary(dataset, secondaryInfo);
+            return;
+        }
+        // the pipe is drained only after the upload has completed, so the secondary storage is already filled
+        switchToPrimaryStorage(dataset, secondaryInfo, primaryInfo);
+    }
 
+    private void switchToPrimaryStorage(Dataset dataset, StorageInfo secondaryInfo, StorageInfo primaryInfo) {
         storageInfoHelper.updateStatus(primaryInfo);
         dataset.removeStorage(secondaryInfo);
-        secondaryStorage.delete(secondaryId);
+        secondaryStorage.delete(secondaryInfo.getStorageId());
+        invalidateCaches(secondaryInfo.getStorageId());
         datasetRepository.save(dataset);
         log.debug("[{}] secondary storage deleted", dataset.getId());
     }
 
+    private record PrimaryIngestion(String storageId, BoundedPipe<JsonNode> pipe, CompletableFuture<Void> task) {
+    }
+
+    /**
+     * Annotations of the page are loaded together with their labels right away, while the rows are fetched
+     * without blocking the calling thread. The enriched page is composed once the rows arrive.
+     */
     @Transactional(readOnly = true)
-    public void getDatasetPage(Dataset dataset, Pageable pageable, OutputStream out) {
+    public CompletableFuture<byte[]> getDatasetPage(Dataset dataset, Pageable pageable) {
         StorageInfo storageInfo = getStorageInfo(dataset);
         Storage<?, JsonNode> storage = getActiveStorage(storageInfo.getMode());
-        try (Stream<Annotation> annotationStream = annotationService.getAnnotationsPage(dataset.getId(), pageable);
-             Stream<JsonNode> dataStream = storage.getPage(storageInfo.getStorageId(), pageable)) {
-            AnnotationEnricher enricher = EnricherFactory.getJsonEnricher(pageable.getOffset());
-            enricher.enrichAndWrite(dataStream, annotationStream, out);
+        List<Annotation> annotations;
+        try (Stream<Annotation> annotationStream = annotationService.getAnnotationsPage(dataset.getId(), pageable)) {
+            annotations = annotationStream.toList();
         }
+        annotations.forEach(annotation -> Hibernate.initialize(annotation.getLabel()));
+        return pageCache.getPageAsync(storage, storageInfo.getStorageId(), pageable).thenApply(page -> {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            AnnotationEnricher enricher = EnricherFactory.getJsonEnricher(pageable.getOffset());
+            enricher.enrichAndWrite(page.stream(), annotations.stream(), out);
+            return out.toByteArray();
+        });
     }
 
     @Transactional
@@ -166,12 +390,19 @@ public class DatasetService {
     @Transactional
     public void deleteDataset(int datasetId) {
         Dataset dataset = getDatasetByIdOrThrow(datasetId);
+        migrationScheduler.cancel(datasetId);
         for (StorageInfo storage : dataset.getStorages()) {
             getActiveStorage(storage.getMode()).delete(storage.getStorageId());
+            invalidateCaches(storage.getStorageId());
         }
         datasetRepository.delete(dataset);
     }
 
+    private void invalidateCaches(String storageId) {
+        pageCache.invalidate(storageId);
+        searchCache.invalidate(storageId);
+    }
+
     @Transactional(readOnly = true)
     public void downloadDataset(Dataset dataset, FileExtension fileExtension, OutputStream out) {
         StorageInfo storageInfo = getStorageInfo(dataset);
@@ -192,6 +423,37 @@ public class DatasetService {
                 .build();
     }
 
+    public DatasetProgressResponseDto getDatasetProgress(int datasetId) {
+        Dataset dataset = getDatasetByIdOrThrow(datasetId);
+        List<StorageProgressResponseDto> storages = dataset.getStorages().stream()
+                .sorted(Comparator.comparing(StorageInfo::getMode))
+                .map(this::getStorageProgress)
+                .toList();
+        return DatasetProgressResponseDto.builder()
+                .datasetId(dataset.getId())
+                .totalRows(dataset.getTotalRows())
+                .migrationQueuePosition(migrationScheduler.getQueuePosition(datasetId).orElse(null))
+                .storages(storages)
+                .build();
+    }
+
+    private StorageProgressResponseDto getStorageProgress(StorageInfo storageInfo) {
+        StorageProgressResponseDto.StorageProgressResponseDtoBuilder builder = StorageProgressResponseDto.builder()
+                .mode(storageInfo.getMode())
+                .status(storageInfo.getStatus())
+                .bytesOnDisk(storageInfo.getMode() == StorageMode.SECONDARY
+                        ? storageJanitor.getUsedBytes(storageInfo.getStorageId())
+                        : null);
+        progressTracker.get(storageInfo.getStorageId()).ifPresent(progress -> builder
+                .rowsIngested(progress.getRowsIngested())
+                .rowsAcknowledged(progress.getRowsAcknowledged())
+                .batchesAcknowledged(progress.getBatchesAcknowledged())
+                .bytesProcessed(progress.getBytesProcessed())
+                .rowsPerSecond(progress.getRowsPerSecond())
+                .etaSeconds(progress.getEtaSeconds()));
+        return builder.build();
+    }
+
     public DatasetTableInfoResponseDto getDatasetTableInfo(int datasetId) {
         try {
             Dataset dataset = getDatasetByIdOrThrow(datasetId);
@@ -216,11 +478,19 @@ public class DatasetService {
         return headers;
     }
 
-    public JsonNode search(int datasetId, String query, Pageable pageable) {
+    public CompletableFuture<JsonNode> search(int datasetId, String query, Pageable pageable) {
+        Dataset dataset = getDatasetByIdOrThrow(datasetId);
+        StorageInfo storageInfo = getStorageInfo(dataset);
+        assertActiveStorageIsSearcher(storageInfo);
+        return searchCache.searchAsync(searcher, storageInfo.getStorageId(), query, pageable);
+    }
+
+    public CompletableFuture<JsonNode> searchAfterAsync(int datasetId, String query, SearchCursor cursor, int size,
+                                                        boolean pinned) {
         Dataset dataset = getDatasetByIdOrThrow(datasetId);
         StorageInfo storageInfo = getStorageInfo(dataset);
         assertActiveStorageIsSearcher(storageInfo);
-        return searcher.search(storageInfo.getStorageId(), query, pageable);
+        return searcher.searchAfterAsync(storageInfo.getStorageId(), query, cursor, size, pinned);
     }
 
     public boolean isDatasetExists(int datasetId) {
@@ -0,0 +1,15 @@
+package ru.turbogoose.cca.backend.components.datasets.dto;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@Builder
+public class DatasetProgressResponseDto {
+    private Integer datasetId;
+    private Long totalRows;
+    private Integer migrationQueuePosition;
+    private List<StorageProgressResponseDto> storages;
+}
@@ -9,6 +9,7 @@ public class DatasetResponseDto {
     private Integer id;
     private String name;
     private Long size;
+    private Long compressedSize;
     private Long totalRows;
     private LocalDateTime created;
 }
@@ -0,0 +1,20 @@
+package ru.turbogoose.cca.backend.components.datasets.dto;
+
+import lombok.Builder;
+import lombok.Data;
+import ru.turbogoose.cca.backend.components.storage.info.StorageMode;
+import ru.turbogoose.cca.backend.components.storage.info.StorageStatus;
+
+@Data
+@Builder
+public class StorageProgressResponseDto {
+    private StorageMode mode;
+    private StorageStatus status;
+    private Long rowsIngested;
+    private Long rowsAcknowledged;
+    private Long batchesAcknowledged;
+    private Long bytesProcessed;
+    private Double rowsPerSecond;
+    private Long etaSeconds;
+    private Long bytesOnDisk;
+}
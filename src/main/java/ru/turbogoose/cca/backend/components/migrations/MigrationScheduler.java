@@ -0,0 +1,147 @@
+package ru.turbogoose.cca.backend.components.migrations;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs migrations of datasets into the primary storage with a bounded number of them running at the same time.
+ * Pending migrations are queued by priority (higher first), then by dataset size (smaller first), then by arrival.
+ * Migrations spend most of the time blocked on storage I/O, so with virtual threads enabled they run on virtual ones.
+ */
+@Slf4j
+@Component
+public class MigrationScheduler {
+    private final int maxConcurrentMigrations;
+    private final Semaphore slots;
+    private final PriorityBlockingQueue<MigrationTask> queue = new PriorityBlockingQueue<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final ExecutorService workers;
+
+    public MigrationScheduler(@Value("${migration.max-concurrent:2}") int maxConcurrentMigrations,
+                              @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        this.maxConcurrentMigrations = maxConcurrentMigrations;
+        this.slots = new Semaphore(maxConcurrentMigrations);
+        this.workers = virtualThreads
+                ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("migration-", 1).factory())
+                : Executors.newCachedThreadPool(Thread.ofPlatform().name("migration-", 1).factory());
+    }
+
+    public void schedule(int datasetId, long size, int priority, Runnable migration) {
+        queue.add(new MigrationTask(datasetId, size, priority, sequence.getAndIncrement(), migration));
+        log.debug("[{}] migration queued (priority {}, {} bytes)", datasetId, priority, size);
+        dispatch();
+    }
+
+    /**
+     * Reserves a slot for a migration that must start right away. Reservation fails if there is no free slot
+     * or other migrations are waiting in the queue.
+     *
+     * @return true if the slot is reserved and must be used by {@link #runReserved} or returned by {@link #release}
+     */
+    public boolean tryReserve() {
+        return queue.isEmpty() && slots.tryAcquire();
+    }
+
+    public CompletableFuture<Void> runReserved(int datasetId, Runnable migration) {
+        try {
+            return CompletableFuture.runAsync(() -> runAndRelease(datasetId, migration), workers);
+        } catch (RejectedExecutionException exc) {
+            release();
+            throw exc;
+        }
+    }
+
+    public void release() {
+        slots.release();
+        dispatch();
+    }
+
+    /**
+     * @return false if migration of the dataset is not queued (e.g. it is already running)
+     */
+    public boolean cancel(int datasetId) {
+        return queue.removeIf(task -> task.datasetId() == datasetId);
+    }
+
+    /**
+     * @return 1-based position of the dataset migration in the queue or empty if it is not queued
+     */
+    public Optional<Integer> getQueuePosition(int datasetId) {
+        MigrationTask[] tasks = queue.toArray(new MigrationTask[0]);
+        MigrationTask target = null;
+        for (MigrationTask task : tasks) {
+            if (task.datasetId() == datasetId) {
+                target = task;
+            }
+        }
+        if (target == null) {
+            return Optional.empty();
+        }
+        int ahead = 0;
+        for (MigrationTask task : tasks) {
+            if (task.compareTo(target) < 0) {
+                ahead++;
+            }
+        }
+        return Optional.of(ahead + 1);
+    }
+
+    public int getRunningMigrations() {
+        return maxConcurrentMigrations - slots.availablePermits();
+    }
+
+    private void dispatch() {
+        while (!queue.isEmpty() && slots.tryAcquire()) {
+            MigrationTask task = queue.poll();
+            if (task == null) {
+                // the queue has been drained by a concurrent dispatch, so give the slot back and check again
+                slots.release();
+                continue;
+            }
+            try {
+                workers.execute(() -> runAndRelease(task.datasetId(), task.migration()));
+            } catch (RejectedExecutionException exc) {
+                slots.release();
+                log.warn("[{}] migration rejected as scheduler is shut down", task.datasetId());
+                return;
+            }
+        }
+    }
+
+    private void runAndRelease(int datasetId, Runnable migration) {
+        try {
+            log.debug("[{}] migration started", datasetId);
+            migration.run();
+        } catch (Exception exc) {
+            log.error("[{}] migration failed", datasetId, exc);
+        } finally {
+            release();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        queue.clear();
+        workers.shutdownNow();
+    }
+
+    private record MigrationTask(int datasetId, long size, int priority, long seqNum, Runnable migration)
+            implements Comparable<MigrationTask> {
+        private static final Comparator<MigrationTask> ORDER = Comparator
+                .comparingInt(MigrationTask::priority).reversed()
+                .thenComparingLong(MigrationTask::size)
+                .thenComparingLong(MigrationTask::seqNum);
+
+        @Override
+        public int compareTo(MigrationTask other) {
+            return ORDER.compare(this, other);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package ru.turbogoose.cca.backend.components.storage;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Service;
+import ru.turbogoose.cca.backend.components.storage.elastic.ElasticsearchService;
+import ru.turbogoose.cca.backend.components.storage.lucene.LuceneService;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+/**
+ * Primary storage delegating to Elasticsearch or embedded Lucene. The engine for new storages is chosen
+ * by {@code storage.primary.engine}: either fixed for the deployment or, in {@code AUTO} mode, by the dataset size
+ * (datasets up to {@code storage.primary.lucene-max-rows} rows go to Lucene). The expected size is passed on
+ * to the engine, which may pick the storage layout by it. Existing storages are always
+ * served by the engine they were created in, which is encoded in their ids. Lucene indices must be kept
+ * in an explicitly configured {@code storage.lucene.folder} whenever new storages may be created in Lucene.
+ */
+@Service
+@Primary
+@Slf4j
+@RequiredArgsConstructor
+public class PrimaryStorageRouter implements SearchableStorage, RowSink {
+    public enum Engine {
+        ELASTICSEARCH, LUCENE, AUTO
+    }
+
+    @Value("${storage.primary.engine:ELASTICSEARCH}")
+    private Engine engine;
+    @Value("${storage.primary.lucene-max-rows:100000}")
+    private long luceneMaxRows;
+
+    private final ElasticsearchService elasticsearchService;
+    private final LuceneService luceneService;
+
+    @PostConstruct
+    public void assertLuceneFolderIsConfigured() {
+        if (engine != Engine.ELASTICSEARCH && !luceneService.isPersistent()) {
+            throw new IllegalStateException(("Primary storage engine %s requires storage.lucene.folder to be set, " +
+                    "otherwise Lucene indices are lost on restart").formatted(engine));
+        }
+    }
+
+    @Override
+    public String create() {
+        return create(-1);
+    }
+
+    @Override
+    public String create(long expectedRows) {
+        SearchableStorage storage = switch (engine) {
+            case ELASTICSEARCH -> elasticsearchService;
+            case LUCENE -> luceneService;
+            // size of the data is unknown when it is ingested in a single pass, so large size is assumed
+            case AUTO -> expectedRows >= 0 && expectedRows <= luceneMaxRows ? luceneService : elasticsearchService;
+        };
+        String storageId = storage.create(expectedRows);
+        log.debug("[{}] primary storage created in {} ({} rows expected)",
+                storageId, storage.getClass().getSimpleName(), expectedRows);
+        return storageId;
+    }
+
+    private SearchableStorage route(String storageId) {
+        return luceneService.owns(storageId) ? luceneService : elasticsearchService;
+    }
+
+    @Override
+    public void fill(String storageId, Stream<JsonNode> in) {
+        route(storageId).fill(storageId, in);
+    }
+
+    @Override
+    public void fillRows(String storageId, Rows rows) {
+        SearchableStorage storage = route(storageId);
+        if (storage instanceof RowSink sink) {
+            sink.fillRows(storageId, rows);
+        } else {
+            storage.fill(storageId, rows.toJson());
+        }
+    }
+
+    @Override
+    public Stream<JsonNode> getAll(String storageId) {
+        return route(storageId).getAll(storageId);
+    }
+
+    @Override
+    public Stream<JsonNode> getPage(String storageId, Pageable pageable) {
+        return route(storageId).getPage(storageId, pageable);
+    }
+
+    @Override
+    public CompletableFuture<List<JsonNode>> getPageAsync(String storageId, Pageable pageable) {
+        return route(storageId).getPageAsync(storageId, pageable);
+    }
+
+    @Override
+    public void delete(String storageId) {
+        route(storageId).delete(storageId);
+    }
+
+    @Override
+    public boolean isStorageReady(String storageId) {
+        return route(storageId).isStorageReady(storageId);
+    }
+
+    @Override
+    public JsonNode search(String storageId, String query, Pageable pageable) {
+        return route(storageId).search(storageId, query, pageable);
+    }
+
+    @Override
+    public CompletableFuture<JsonNode> searchAsync(String storageId, String query, Pageable pageable) {
+        return route(storageId).searchAsync(storageId, query, pageable);
+    }
+
+    @Override
+    public JsonNode searchAfter(String storageId, String query, SearchCursor cursor, int size, boolean pinned) {
+        return route(storageId).searchAfter(storageId, query, cursor, size, pinned);
+    }
+
+    @Override
+    public CompletableFuture<JsonNode> searchAfterAsync(String storageId, String query, SearchCursor cursor,
+                                                        int size, boolean pinned) {
+        return route(storageId).searchAfterAsync(storageId, query, cursor, size, pinned);
+    }
+
+    @Override
+    public boolean isSearcherReady(String storageId) {
+        return route(storageId).isSearcherReady(storageId);
+    }
+}
@@ -0,0 +1,11 @@
+package ru.turbogoose.cca.backend.components.storage;
+
+/**
+ * Storage able to be filled with plain column values, the counterpart of {@link RowSource}
+ */
+public interface RowSink {
+    /**
+     * Same as {@link Storage#fill}, rows are not closed
+     */
+    void fillRows(String storageId, Rows rows);
+}
@@ -0,0 +1,12 @@
+package ru.turbogoose.cca.backend.components.storage;
+
+/**
+ * Storage able to read its rows as plain column values, so they can be copied into a {@link RowSink}
+ * without building a JSON tree for every row
+ */
+public interface RowSource {
+    /**
+     * @apiNote Returned rows must be explicitly closed
+     */
+    Rows getAllRows(String storageId);
+}
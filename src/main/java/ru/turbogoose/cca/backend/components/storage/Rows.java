@@ -0,0 +1,37 @@
+package ru.turbogoose.cca.backend.components.storage;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Rows of a dataset as plain column values. Rows may have fewer values than there are columns,
+ * missing trailing values are absent from the row.
+ *
+ * @apiNote Rows must be explicitly closed
+ */
+public record Rows(List<String> columns, Stream<String[]> values) implements AutoCloseable {
+
+    /**
+     * @return rows as JSON objects for storages which are not able to take plain values
+     */
+    public Stream<JsonNode> toJson() {
+        String[] names = columns.toArray(new String[0]);
+        return values.map(row -> {
+            ObjectNode json = JsonNodeFactory.instance.objectNode();
+            int count = Math.min(names.length, row.length);
+            for (int i = 0; i < count; i++) {
+                json.put(names[i], row[i]);
+            }
+            return json;
+        });
+    }
+
+    @Override
+    public void close() {
+        values.close();
+    }
+}
@@ -0,0 +1,51 @@
+package ru.turbogoose.cca.backend.components.storage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.util.Base64;
+
+/**
+ * Position of the last hit of a search page, handed out to clients as an opaque token.
+ * The cursor is bound to the storage it was issued for, so it can't be used to page through another dataset.
+ *
+ * @param storageId storage the cursor was issued for
+ * @param score     score of the hit
+ * @param position  tie breaker of hits with equal scores (row number or document number, depending on the engine)
+ * @param pitId     point in time the search is pinned to, or null
+ */
+public record SearchCursor(String storageId, double score, long position, String pitId) {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * @throws IllegalArgumentException if the cursor was issued for another storage
+     */
+    public void assertIssuedFor(String storageId) {
+        if (!storageId.equals(this.storageId)) {
+            throw new IllegalArgumentException("Search cursor was issued for another dataset");
+        }
+    }
+
+    public String encode() {
+        try {
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(objectMapper.writeValueAsBytes(this));
+        } catch (IOException exc) {
+            throw new IllegalStateException("Failed to encode search cursor", exc);
+        }
+    }
+
+    /**
+     * @return cursor encoded in the token, or null for an empty token (the first page)
+     * @throws IllegalArgumentException if the token is malformed
+     */
+    public static SearchCursor decode(String token) {
+        if (token == null || token.isBlank()) {
+            return null;
+        }
+        try {
+            return objectMapper.readValue(Base64.getUrlDecoder().decode(token), SearchCursor.class);
+        } catch (IOException | IllegalArgumentException exc) {
+            throw new IllegalArgumentException("Invalid search cursor");
+        }
+    }
+}
@@ -0,0 +1,9 @@
+package ru.turbogoose.cca.backend.components.storage;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Primary storage which is able to search through its data
+ */
+public interface SearchableStorage extends Searcher, Storage<JsonNode, JsonNode> {
+}
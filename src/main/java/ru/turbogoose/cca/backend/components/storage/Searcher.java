@@ -3,9 +3,43 @@ package ru.turbogoose.cca.backend.components.storage;
 import com.fasterxml.jackson.databind.JsonNode;
 import org.springframework.data.domain.Pageable;
 
+import java.util.concurrent.CompletableFuture;
+
 public interface Searcher {
 
     JsonNode search(String storageId, String query, Pageable pageable);
 
+    /**
+     * Non-blocking variant of {@link #search}. Searchers over local data serve it in the calling thread.
+     */
+    default CompletableFuture<JsonNode> searchAsync(String storageId, String query, Pageable pageable) {
+        try {
+            return CompletableFuture.completedFuture(search(storageId, query, pageable));
+        } catch (RuntimeException exc) {
+            return CompletableFuture.failedFuture(exc);
+        }
+    }
+
+    /**
+     * Returns the page of hits following the cursor (ordered by score) along with the cursor of the next page,
+     * which is null after the last page. Unlike offset pages, every page costs the same regardless of its depth.
+     *
+     * @param cursor cursor returned with the previous page, or null for the first page
+     * @param pinned whether the first page should pin the search to the current snapshot of the data
+     */
+    JsonNode searchAfter(String storageId, String query, SearchCursor cursor, int size, boolean pinned);
+
+    /**
+     * Non-blocking variant of {@link #searchAfter}. Searchers over local data serve it in the calling thread.
+     */
+    default CompletableFuture<JsonNode> searchAfterAsync(String storageId, String query, SearchCursor cursor,
+                                                         int size, boolean pinned) {
+        try {
+            return CompletableFuture.completedFuture(searchAfter(storageId, query, cursor, size, pinned));
+        } catch (RuntimeException exc) {
+            return CompletableFuture.failedFuture(exc);
+        }
+    }
+
     boolean isSearcherReady(String storageId);
 }
@@ -0,0 +1,89 @@
+package ru.turbogoose.cca.backend.components.storage;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.csv.CSVRecord;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Service;
+import ru.turbogoose.cca.backend.components.storage.filesystem.FileSystemTempBinaryStorage;
+import ru.turbogoose.cca.backend.components.storage.filesystem.FileSystemTempCsvStorage;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+/**
+ * Secondary storage delegating to the CSV or binary file storage. New storages are created in the format
+ * set by {@code storage.secondary.format}, while existing ones are served by the storage owning their ids,
+ * so storages created before the format was changed stay readable until they are migrated.
+ */
+@Service
+@Primary
+@Slf4j
+@RequiredArgsConstructor
+public class SecondaryStorageRouter implements Storage<CSVRecord, JsonNode>, RowSource {
+    public enum Format {
+        CSV, BINARY
+    }
+
+    @Value("${storage.secondary.format:CSV}")
+    private Format format;
+
+    private final FileSystemTempCsvStorage csvStorage;
+    private final FileSystemTempBinaryStorage binaryStorage;
+
+    @Override
+    public String create() {
+        Storage<CSVRecord, JsonNode> storage = switch (format) {
+            case CSV -> csvStorage;
+            case BINARY -> binaryStorage;
+        };
+        String storageId = storage.create();
+        log.debug("[{}] secondary storage created in {}", storageId, storage.getClass().getSimpleName());
+        return storageId;
+    }
+
+    private Storage<CSVRecord, JsonNode> route(String storageId) {
+        return binaryStorage.owns(storageId) ? binaryStorage : csvStorage;
+    }
+
+    @Override
+    public void fill(String storageId, Stream<CSVRecord> in) {
+        route(storageId).fill(storageId, in);
+    }
+
+    @Override
+    public Stream<JsonNode> getAll(String storageId) {
+        return route(storageId).getAll(storageId);
+    }
+
+    @Override
+    public Rows getAllRows(String storageId) {
+        return binaryStorage.owns(storageId)
+                ? binaryStorage.getAllRows(storageId)
+                : csvStorage.getAllRows(storageId);
+    }
+
+    @Override
+    public Stream<JsonNode> getPage(String storageId, Pageable pageable) {
+        return route(storageId).getPage(storageId, pageable);
+    }
+
+    @Override
+    public CompletableFuture<List<JsonNode>> getPageAsync(String storageId, Pageable pageable) {
+        return route(storageId).getPageAsync(storageId, pageable);
+    }
+
+    @Override
+    public void delete(String storageId) {
+        route(storageId).delete(storageId);
+    }
+
+    @Override
+    public boolean isStorageReady(String storageId) {
+        return route(storageId).isStorageReady(storageId);
+    }
+}
@@ -2,17 +2,39 @@ package ru.turbogoose.cca.backend.components.storage;
 
 import org.springframework.data.domain.Pageable;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Stream;
 
 public interface Storage<I, O> {
     String create();
 
+    /**
+     * Creates storage for data of the given size, which may be used to pick a suitable storage layout
+     *
+     * @param expectedRows number of rows the storage will be filled with, or -1 if unknown
+     */
+    default String create(long expectedRows) {
+        return create();
+    }
+
     void fill(String storageId, Stream<I> in);
 
     Stream<O> getAll(String storageId);
 
     Stream<O> getPage(String storageId, Pageable pageable);
 
+    /**
+     * Non-blocking variant of {@link #getPage}. Storages reading local data serve it in the calling thread.
+     */
+    default CompletableFuture<List<O>> getPageAsync(String storageId, Pageable pageable) {
+        try (Stream<O> page = getPage(storageId, pageable)) {
+            return CompletableFuture.completedFuture(page.toList());
+        } catch (RuntimeException exc) {
+            return CompletableFuture.failedFuture(exc);
+        }
+    }
+
     void delete(String storageId);
 
     boolean isStorageReady(String storageId);
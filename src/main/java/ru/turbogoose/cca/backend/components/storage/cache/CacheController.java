@@ -0,0 +1,22 @@
+package ru.turbogoose.cca.backend.components.storage.cache;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+import ru.turbogoose.cca.backend.common.cache.CacheStats;
+
+import java.util.List;
+
+@RequiredArgsConstructor
+@RestController
+@CrossOrigin
+@RequestMapping("/api/caches")
+public class CacheController {
+    private final PageCache pageCache;
+    private final SearchCache searchCache;
+
+    @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE)
+    public List<CacheStats> getCacheStats() {
+        return List.of(pageCache.getStats(), searchCache.getStats());
+    }
+}
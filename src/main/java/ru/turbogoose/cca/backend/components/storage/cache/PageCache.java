@@ -0,0 +1,65 @@
+package ru.turbogoose.cca.backend.components.storage.cache;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Component;
+import ru.turbogoose.cca.backend.common.cache.ByteBoundedLruCache;
+import ru.turbogoose.cca.backend.common.cache.CacheStats;
+import ru.turbogoose.cca.backend.common.cache.JsonWeigher;
+import ru.turbogoose.cca.backend.components.storage.Storage;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Cache of decoded storage pages keyed by storage id, offset and page size. Pages are handed out as deep copies,
+ * since consumers enrich rows in place. Storage ids are never reused, so entries only have to be
+ * invalidated when the storage is deleted.
+ */
+@Component
+@Slf4j
+public class PageCache {
+    private final boolean enabled;
+    private final ByteBoundedLruCache<PageKey, List<JsonNode>> cache;
+
+    public PageCache(@Value("${cache.pages.enabled:true}") boolean enabled,
+                     @Value("${cache.pages.max-bytes:67108864}") long maxBytes) {
+        this.enabled = enabled;
+        this.cache = new ByteBoundedLruCache<>("pages", maxBytes, JsonWeigher::weigh);
+    }
+
+    /**
+     * @see Storage#getPageAsync
+     */
+    public CompletableFuture<List<JsonNode>> getPageAsync(Storage<?, JsonNode> storage, String storageId,
+                                                          Pageable pageable) {
+        if (!enabled) {
+            return storage.getPageAsync(storageId, pageable);
+        }
+        PageKey key = new PageKey(storageId, pageable.getOffset(), pageable.getPageSize());
+        List<JsonNode> cached = cache.get(key);
+        CompletableFuture<List<JsonNode>> page = cached != null
+                ? CompletableFuture.completedFuture(cached)
+                : storage.getPageAsync(storageId, pageable).thenApply(loaded -> {
+                    cache.put(key, loaded);
+                    return loaded;
+                });
+        return page.thenApply(rows -> rows.stream().<JsonNode>map(JsonNode::deepCopy).toList());
+    }
+
+    public void invalidate(String storageId) {
+        int removed = cache.invalidateIf(key -> key.storageId().equals(storageId));
+        if (removed > 0) {
+            log.debug("[{}] {} cached pages invalidated", storageId, removed);
+        }
+    }
+
+    public CacheStats getStats() {
+        return cache.getStats();
+    }
+
+    private record PageKey(String storageId, long offset, int size) {
+    }
+}
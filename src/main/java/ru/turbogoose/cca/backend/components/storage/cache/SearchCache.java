@@ -0,0 +1,72 @@
+package ru.turbogoose.cca.backend.components.storage.cache;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Component;
+import ru.turbogoose.cca.backend.common.cache.ByteBoundedLruCache;
+import ru.turbogoose.cca.backend.common.cache.CacheStats;
+import ru.turbogoose.cca.backend.common.cache.JsonWeigher;
+import ru.turbogoose.cca.backend.components.storage.Searcher;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Cache of composed search responses keyed by storage id, query, offset and page size, so paging back and forth
+ * through the same query does not repeat the search and highlighting. Entries live for {@code cache.search.ttl}.
+ * Responses are shared between callers and must not be modified. Timed out (partial) responses are not cached.
+ */
+@Component
+@Slf4j
+public class SearchCache {
+    private final boolean enabled;
+    private final ByteBoundedLruCache<SearchKey, JsonNode> cache;
+
+    public SearchCache(@Value("${cache.search.enabled:true}") boolean enabled,
+                       @Value("${cache.search.max-bytes:33554432}") long maxBytes,
+                       @Value("${cache.search.ttl:5m}") Duration ttl) {
+        this.enabled = enabled;
+        this.cache = new ByteBoundedLruCache<>("search", maxBytes, JsonWeigher::weigh, ttl);
+    }
+
+    /**
+     * @see Searcher#searchAsync
+     */
+    public CompletableFuture<JsonNode> searchAsync(Searcher searcher, String storageId, String query,
+                                                   Pageable pageable) {
+        if (!enabled) {
+            return searcher.searchAsync(storageId, query, pageable);
+        }
+        SearchKey key = new SearchKey(storageId, query, pageable.getOffset(), pageable.getPageSize());
+        JsonNode cached = cache.get(key);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return searcher.searchAsync(storageId, query, pageable).thenApply(result -> {
+            putIfComplete(key, result);
+            return result;
+        });
+    }
+
+    private void putIfComplete(SearchKey key, JsonNode result) {
+        if (!result.path("timeout").asBoolean(false)) {
+            cache.put(key, result);
+        }
+    }
+
+    public void invalidate(String storageId) {
+        int removed = cache.invalidateIf(key -> key.storageId().equals(storageId));
+        if (removed > 0) {
+            log.debug("[{}] {} cached search results invalidated", storageId, removed);
+        }
+    }
+
+    public CacheStats getStats() {
+        return cache.getStats();
+    }
+
+    private record SearchKey(String storageId, String query, long offset, int size) {
+    }
+}
@@ -0,0 +1,316 @@
+package ru.turbogoose.cca.backend.components.storage.elastic;
+
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
+import co.elastic.clients.elasticsearch.core.BulkRequest;
+import co.elastic.clients.elasticsearch.core.BulkResponse;
+import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import co.elastic.clients.transport.TransportException;
+import co.elastic.clients.util.BinaryData;
+import co.elastic.clients.util.ContentType;
+import lombok.extern.slf4j.Slf4j;
+import ru.turbogoose.cca.backend.components.storage.exception.StorageException;
+import ru.turbogoose.cca.backend.components.storage.progress.IngestionProgress;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Indexes rows of one storage, given as serialized JSON sources, with bulk requests. Unlike {@code BulkIngester}, all the waiting happens
+ * in the thread adding rows and never in completion callbacks:
+ * <ul>
+ *     <li>requests are cut by the number of rows and by their size in bytes, or when the oldest row waits too long;</li>
+ *     <li>the number of requests in flight is adapted by {@link AimdConcurrencyLimiter} and bounded
+ *     by the global {@link BulkRequestBudget};</li>
+ *     <li>rows rejected because of the cluster load (or lost with a failed request) are sent again
+ *     with exponential backoff, other rejected rows fail the ingestion.</li>
+ * </ul>
+ * {@link #awaitIndexed()} returns only when every row is confirmed by the cluster, {@link #abort()} stops
+ * the ingestion once the requests in flight complete.
+ */
+@Slf4j
+class AdaptiveBulkIngester {
+    private static final Set<Integer> RETRYABLE_STATUSES = Set.of(429, 502, 503, 504);
+    private static final String REJECTED_EXECUTION = "es_rejected_execution_exception";
+    private static final long MAX_WAIT_NANOS = Duration.ofMillis(100).toNanos();
+
+    private final String storageId;
+    private final IndexLayout layout;
+    private final Settings settings;
+    private final Function<BulkRequest, CompletableFuture<BulkResponse>> client;
+    private final BulkRequestBudget budget;
+    private final IngestionProgress progress;
+    private final AimdConcurrencyLimiter limiter;
+
+    private final PriorityBlockingQueue<PendingRow> retries = new PriorityBlockingQueue<>(
+            16, Comparator.comparingLong(PendingRow::dueAtNanos));
+    private final AtomicLong unconfirmedRows = new AtomicLong();
+    private final AtomicLong failedRows = new AtomicLong();
+    private final AtomicLong retriedRows = new AtomicLong();
+    private volatile String firstFailure;
+    private final Object completion = new Object();
+
+    private List<PendingRow> batch = new ArrayList<>();
+    private long batchBytes;
+    private long batchStartedAtNanos;
+    private long executionId;
+
+    AdaptiveBulkIngester(IndexLayout layout, Settings settings,
+                         Function<BulkRequest, CompletableFuture<BulkResponse>> client,
+                         BulkRequestBudget budget, IngestionProgress progress) {
+        this.storageId = layout.storageId();
+        this.layout = layout;
+        this.settings = settings;
+        this.client = client;
+        this.budget = budget;
+        this.progress = progress;
+        this.limiter = new AimdConcurrencyLimiter(settings.maxConcurrentRequests(), settings.latencyThreshold().toNanos());
+    }
+
+    /**
+     * Queues the row for indexing, sending a bulk request if enough rows are queued
+     *
+     * @param rowNum row number the document id is made of
+     * @param source JSON source of the document
+     * @throws StorageException if some of the rows sent before could not be indexed
+     */
+    void add(long rowNum, byte[] source) {
+        unconfirmedRows.incrementAndGet();
+        enqueue(new PendingRow(rowNum, source, 0, 0));
+        resubmitDueRetries();
+        throwIfFailed();
+    }
+
+    /**
+     * Sends the remaining rows and waits until all the rows are either indexed or retried out
+     *
+     * @throws StorageException if any of the rows could not be indexed
+     */
+    void awaitIndexed() {
+        while (true) {
+            throwIfFailed();
+            resubmitDueRetries();
+            if (!batch.isEmpty()) {
+                sendBatch();
+            }
+            if (unconfirmedRows.get() == 0) {
+                break;
+            }
+            synchronized (completion) {
+                PendingRow nextRetry = retries.peek();
+                long waitNanos = nextRetry != null
+                        ? Math.min(nextRetry.dueAtNanos() - System.nanoTime(), MAX_WAIT_NANOS)
+                        : MAX_WAIT_NANOS;
+                if (waitNanos > 0 && unconfirmedRows.get() > 0) {
+                    try {
+                        completion.wait(Math.max(waitNanos / 1_000_000, 1));
+                    } catch (InterruptedException exc) {
+                        Thread.currentThread().interrupt();
+                        throw new IllegalStateException("Interrupted while waiting for rows to be indexed", exc);
+                    }
+                }
+            }
+        }
+        throwIfFailed();
+        if (retriedRows.get() > 0) {
+            log.info("[{}] All rows indexed, {} of them retried", storageId, retriedRows.get());
+        }
+    }
+
+    /**
+     * Drops the rows not sent yet and waits for the requests in flight, so nothing reaches the index
+     * after this method returns (e.g. a late request re-creating the index deleted after a failure)
+     */
+    void abort() {
+        batch = new ArrayList<>();
+        batchBytes = 0;
+        retries.clear();
+        limiter.awaitIdle();
+        // rows of the requests completed meanwhile may have been scheduled for retry
+        retries.clear();
+    }
+
+    int getConcurrencyLimit() {
+        return limiter.getLimit();
+    }
+
+    private void enqueue(PendingRow row) {
+        if (!batch.isEmpty() && batchBytes + row.source().length > settings.maxBytes()) {
+            sendBatch();
+        }
+        if (batch.isEmpty()) {
+            batchStartedAtNanos = System.nanoTime();
+        }
+        batch.add(row);
+        batchBytes += row.source().length;
+        if (batch.size() >= settings.maxOperations() || batchBytes >= settings.maxBytes()
+                || System.nanoTime() - batchStartedAtNanos >= settings.flushInterval().toNanos()) {
+            sendBatch();
+        }
+    }
+
+    private void resubmitDueRetries() {
+        long now = System.nanoTime();
+        PendingRow row;
+        while ((row = retries.peek()) != null && row.dueAtNanos() <= now) {
+            enqueue(retries.poll());
+        }
+    }
+
+    private void sendBatch() {
+        List<PendingRow> rows = batch;
+        batch = new ArrayList<>();
+        batchBytes = 0;
+        long id = ++executionId;
+
+        limiter.acquire();
+        try {
+            budget.acquire();
+        } catch (RuntimeException exc) {
+            limiter.onFailure();
+            throw exc;
+        }
+        BulkRequest request = BulkRequest.of(b -> b.operations(rows.stream()
+                .map(row -> BulkOperation.of(op -> op
+                        .index(idx -> idx
+                                .index(layout.index())
+                                .id(layout.documentId(row.rowNum()))
+                                .routing(layout.routing())
+                                .document(BinaryData.of(row.source(), ContentType.APPLICATION_JSON)))))
+                .toList()));
+        log.debug("[{}] Sending bulk request {} with {} rows, concurrency limit {}",
+                storageId, id, rows.size(), limiter.getLimit());
+        long startedAtNanos = System.nanoTime();
+        CompletableFuture<BulkResponse> response;
+        try {
+            response = client.apply(request);
+        } catch (RuntimeException exc) {
+            response = CompletableFuture.failedFuture(exc);
+        }
+        response.whenComplete((result, failure) -> {
+            try {
+                if (failure != null) {
+                    onRequestFailed(id, rows, failure);
+                } else {
+                    onResponse(id, rows, result, System.nanoTime() - startedAtNanos);
+                }
+            } finally {
+                synchronized (completion) {
+                    completion.notifyAll();
+                }
+            }
+        });
+    }
+
+    private void onResponse(long id, List<PendingRow> rows, BulkResponse response, long latencyNanos) {
+        budget.release();
+        boolean overloaded = false;
+        long indexedRows = 0;
+        for (int i = 0; i < rows.size(); i++) {
+            PendingRow row = rows.get(i);
+            BulkResponseItem item = response.items().get(i);
+            if (item.error() == null) {
+                indexedRows++;
+            } else if (RETRYABLE_STATUSES.contains(item.status()) || REJECTED_EXECUTION.equals(item.error().type())) {
+                overloaded = true;
+                scheduleRetry(row, item.error().reason());
+            } else {
+                fail(row, item.error().reason());
+            }
+        }
+        if (overloaded) {
+            limiter.onOverload();
+        } else {
+            limiter.onSuccess(latencyNanos);
+        }
+        unconfirmedRows.addAndGet(-indexedRows);
+        progress.acknowledgeBatch(indexedRows);
+        log.debug("[{}] Bulk request {} completed in {} ms, {} of {} rows indexed",
+                storageId, id, latencyNanos / 1_000_000, indexedRows, rows.size());
+    }
+
+    private void onRequestFailed(long id, List<PendingRow> rows, Throwable failure) {
+        budget.release();
+        Throwable cause = failure instanceof CompletionException && failure.getCause() != null
+                ? failure.getCause() : failure;
+        if (isOverload(cause)) {
+            limiter.onOverload();
+        } else {
+            limiter.onFailure();
+        }
+        log.warn("[{}] Bulk request {} failed for rows from {} to {}: {}", storageId, id,
+                rows.getFirst().rowNum(), rows.getLast().rowNum(), cause.toString());
+        rows.forEach(row -> scheduleRetry(row, cause.toString()));
+    }
+
+    private static boolean isOverload(Throwable cause) {
+        if (cause instanceof ElasticsearchException exc) {
+            return exc.status() == 429 || REJECTED_EXECUTION.equals(exc.error().type());
+        }
+        return cause instanceof TransportException exc && RETRYABLE_STATUSES.contains(exc.statusCode());
+    }
+
+    private void scheduleRetry(PendingRow row, String reason) {
+        int attempt = row.attempt() + 1;
+        if (attempt > settings.maxRetries()) {
+            fail(row, "%s (gave up after %d retries)".formatted(reason, settings.maxRetries()));
+            return;
+        }
+        if (row.attempt() == 0) {
+            retriedRows.incrementAndGet();
+        }
+        retries.add(new PendingRow(row.rowNum(), row.source(), attempt, System.nanoTime() + backoffNanos(attempt)));
+    }
+
+    /**
+     * Exponential backoff with jitter, so rows rejected together are not sent again all at once
+     */
+    private long backoffNanos(int attempt) {
+        long initial = settings.initialBackoff().toNanos();
+        long max = settings.maxBackoff().toNanos();
+        long backoff = attempt >= 31 ? max : Math.min(initial << (attempt - 1), max);
+        return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    }
+
+    private void fail(PendingRow row, String reason) {
+        log.error("[{}] Failed to index row {}. Cause: {}", storageId, row.rowNum(), reason);
+        if (failedRows.getAndIncrement() == 0) {
+            firstFailure = "row %d: %s".formatted(row.rowNum(), reason);
+        }
+        unconfirmedRows.decrementAndGet();
+    }
+
+    private void throwIfFailed() {
+        long failed = failedRows.get();
+        if (failed > 0) {
+            throw new StorageException("Failed to index %d rows, first failed %s".formatted(failed, firstFailure),
+                    "Failed to index %d rows of elastic storage %s".formatted(failed, storageId));
+        }
+    }
+
+    /**
+     * @param maxOperations         max number of rows in a request
+     * @param maxBytes              max size of row sources in a request
+     * @param flushInterval         max time the first row of a request waits for the request to be full
+     * @param maxConcurrentRequests upper bound for the number of requests in flight
+     * @param latencyThreshold      requests completed faster let the number of requests in flight grow
+     * @param maxRetries            number of attempts to index a rejected row again before giving up
+     * @param initialBackoff        delay before the first retry, doubled for each next one
+     * @param maxBackoff            max delay between retries
+     */
+    record Settings(int maxOperations, long maxBytes, Duration flushInterval, int maxConcurrentRequests,
+                    Duration latencyThreshold, int maxRetries, Duration initialBackoff, Duration maxBackoff) {
+    }
+
+    private record PendingRow(long rowNum, byte[] source, int attempt, long dueAtNanos) {
+    }
+}
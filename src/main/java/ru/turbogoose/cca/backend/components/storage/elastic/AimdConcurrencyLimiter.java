@@ -0,0 +1,85 @@
+package ru.turbogoose.cca.backend.components.storage.elastic;
+
+/**
+ * Limits the number of bulk requests of one ingestion in flight. The limit grows by one request per window
+ * of requests completed within the latency threshold (additive increase) and is halved as soon as the cluster
+ * rejects a request (multiplicative decrease), so ingestion settles at the concurrency the cluster can keep up with.
+ */
+class AimdConcurrencyLimiter {
+    private final int maxLimit;
+    private final long latencyThresholdNanos;
+    private double limit = 1;
+    private int inFlight;
+
+    AimdConcurrencyLimiter(int maxLimit, long latencyThresholdNanos) {
+        this.maxLimit = Math.max(maxLimit, 1);
+        this.latencyThresholdNanos = latencyThresholdNanos;
+    }
+
+    /**
+     * Blocks until one more request is allowed to be sent. Must not be called from completion callbacks.
+     */
+    synchronized void acquire() {
+        try {
+            while (inFlight >= (int) limit) {
+                wait();
+            }
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting to send bulk request", exc);
+        }
+        inFlight++;
+    }
+
+    /**
+     * Releases the request that completed in time given without rejections
+     */
+    synchronized void onSuccess(long latencyNanos) {
+        if (latencyNanos <= latencyThresholdNanos) {
+            limit = Math.min(limit + 1 / limit, maxLimit);
+        }
+        release();
+    }
+
+    /**
+     * Releases the request rejected by the cluster as overloaded
+     */
+    synchronized void onOverload() {
+        limit = Math.max(limit / 2, 1);
+        release();
+    }
+
+    /**
+     * Releases the request that failed for reasons unrelated to the cluster load
+     */
+    synchronized void onFailure() {
+        release();
+    }
+
+    /**
+     * Blocks until all the requests in flight are released
+     */
+    synchronized void awaitIdle() {
+        try {
+            while (inFlight > 0) {
+                wait();
+            }
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for bulk requests to complete", exc);
+        }
+    }
+
+    synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    private void release() {
+        inFlight--;
+        notifyAll();
+    }
+}
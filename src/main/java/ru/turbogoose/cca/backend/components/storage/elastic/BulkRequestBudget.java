@@ -0,0 +1,33 @@
+package ru.turbogoose.cca.backend.components.storage.elastic;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Limits the number of bulk requests in flight across all the indices being filled at the same time,
+ * so concurrent ingestions can not saturate the cluster and starve searches. Ingestion blocks while
+ * the budget is exhausted.
+ */
+@Component
+public class BulkRequestBudget {
+    private final Semaphore permits;
+
+    public BulkRequestBudget(@Value("${elasticsearch.bulk.max-in-flight-requests:4}") int maxInFlightRequests) {
+        this.permits = new Semaphore(maxInFlightRequests, true);
+    }
+
+    public void acquire() {
+        try {
+            permits.acquire();
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for bulk request budget", exc);
+        }
+    }
+
+    public void release() {
+        permits.release();
+    }
+}
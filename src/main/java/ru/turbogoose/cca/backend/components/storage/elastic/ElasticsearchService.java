@@ -2,17 +2,30 @@ package ru.turbogoose.cca.backend.components.storage.elastic;
 
 import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
 import co.elastic.clients.elasticsearch.ElasticsearchClient;
-import co.elastic.clients.elasticsearch._helpers.bulk.BulkIngester;
-import co.elastic.clients.elasticsearch._helpers.bulk.BulkListener;
+import co.elastic.clients.elasticsearch._types.Conflicts;
+import co.elastic.clients.elasticsearch._types.ElasticsearchException;
 import co.elastic.clients.elasticsearch._types.FieldSort;
+import co.elastic.clients.elasticsearch._types.FieldValue;
 import co.elastic.clients.elasticsearch._types.SortOrder;
+import co.elastic.clients.elasticsearch._types.mapping.DynamicTemplate;
+import co.elastic.clients.elasticsearch._types.mapping.Property;
+import co.elastic.clients.elasticsearch._types.mapping.PropertyBase;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.elasticsearch.core.MgetRequest;
+import co.elastic.clients.elasticsearch.core.MgetResponse;
+import co.elastic.clients.elasticsearch.core.OpenPointInTimeRequest;
+import co.elastic.clients.elasticsearch.core.OpenPointInTimeResponse;
+import co.elastic.clients.elasticsearch.core.SearchRequest;
 import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.get.GetResult;
+import co.elastic.clients.elasticsearch.core.mget.MultiGetResponseItem;
 import co.elastic.clients.elasticsearch.core.search.HighlighterEncoder;
 import co.elastic.clients.elasticsearch.core.search.HighlighterType;
 import co.elastic.clients.elasticsearch.core.search.Hit;
 import co.elastic.clients.elasticsearch.core.search.TotalHits;
 import co.elastic.clients.elasticsearch.indices.CreateIndexResponse;
-import co.elastic.clients.json.JsonData;
+import co.elastic.clients.elasticsearch.indices.IndexSettings;
+import co.elastic.clients.elasticsearch.indices.TranslogDurability;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ArrayNode;
@@ -22,211 +35,556 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
-import ru.turbogoose.cca.backend.components.storage.Searcher;
-import ru.turbogoose.cca.backend.components.storage.Storage;
+import ru.turbogoose.cca.backend.common.util.JsonRowWriter;
+import ru.turbogoose.cca.backend.components.storage.RowSink;
+import ru.turbogoose.cca.backend.components.storage.Rows;
+import ru.turbogoose.cca.backend.components.storage.SearchCursor;
+import ru.turbogoose.cca.backend.components.storage.SearchableStorage;
 import ru.turbogoose.cca.backend.components.storage.exception.NotReadyException;
 import ru.turbogoose.cca.backend.components.storage.exception.SearcherException;
 import ru.turbogoose.cca.backend.components.storage.exception.StorageException;
 import ru.turbogoose.cca.backend.components.storage.info.StorageInfo;
 import ru.turbogoose.cca.backend.components.storage.info.StorageInfoHelper;
 import ru.turbogoose.cca.backend.components.storage.info.StorageStatus;
+import ru.turbogoose.cca.backend.components.storage.progress.IngestionProgress;
+import ru.turbogoose.cca.backend.components.storage.progress.IngestionProgressTracker;
 
 import java.io.IOException;
-import java.io.UncheckedIOException;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.UUID;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.stream.LongStream;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static ru.turbogoose.cca.backend.components.storage.info.StorageStatus.READY;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
-public class ElasticsearchService implements Searcher, Storage<JsonNode, JsonNode> {
+public class ElasticsearchService implements SearchableStorage, RowSink {
     public static final ObjectMapper objectMapper = new ObjectMapper();
     private static final String TIE_BREAKER_ID = "tbid";
+    private static final String DATASET_KEY = "dskey";
     @Value("${elasticsearch.query.timeout:1m}")
     private String queryTimeout;
     @Value("${elasticsearch.download.batch.size:10000}")
     private int downloadBatchSize;
+    @Value("${elasticsearch.download.slices:4}")
+    private int exportSlices;
+    @Value("${elasticsearch.download.keep-alive:1m}")
+    private String exportKeepAlive;
+    @Value("${elasticsearch.search.cursor-keep-alive:5m}")
+    private String cursorKeepAlive;
     @Value("${elasticsearch.max-concurrent-requests:1}")
     private int maxConcurrentRequests;
+    @Value("${elasticsearch.bulk.max-bytes:10485760}")
+    private long bulkMaxBytes;
+    @Value("${elasticsearch.bulk.flush-interval:5s}")
+    private Duration bulkFlushInterval;
+    @Value("${elasticsearch.bulk.latency-threshold:2s}")
+    private Duration bulkLatencyThreshold;
+    @Value("${elasticsearch.bulk.max-retries:8}")
+    private int bulkMaxRetries;
+    @Value("${elasticsearch.bulk.initial-backoff:200ms}")
+    private Duration bulkInitialBackoff;
+    @Value("${elasticsearch.bulk.max-backoff:30s}")
+    private Duration bulkMaxBackoff;
+    @Value("${elasticsearch.index.shards:1}")
+    private int numberOfShards;
+    @Value("${elasticsearch.index.replicas:1}")
+    private int numberOfReplicas;
+    @Value("${elasticsearch.index.refresh-interval:1s}")
+    private String refreshInterval;
+    @Value("${elasticsearch.bulk-load.enabled:false}")
+    private boolean bulkLoadEnabled;
+    @Value("${elasticsearch.bulk-load.async-translog:false}")
+    private boolean bulkLoadAsyncTranslog;
+    @Value("${elasticsearch.bulk-load.max-segments:0}")
+    private long bulkLoadMaxSegments;
+    @Value("${elasticsearch.mapping.sample-size:1000}")
+    private int mappingSampleSize;
+    @Value("${elasticsearch.mapping.keyword-max-length:32}")
+    private int keywordMaxLength;
+    @Value("${elasticsearch.shared-index.enabled:false}")
+    private boolean sharedIndexEnabled;
+    @Value("${elasticsearch.shared-index.name:cca-shared}")
+    private String sharedIndexName;
+    @Value("${elasticsearch.shared-index.max-rows:100000}")
+    private long sharedIndexMaxRows;
+    @Value("${elasticsearch.shared-index.shards:4}")
+    private int sharedIndexShards;
+    @Value("${elasticsearch.shared-index.max-fields:10000}")
+    private int sharedIndexMaxFields;
+    @Value("${elasticsearch.shared-index.field-headroom:1000}")
+    private int sharedIndexFieldHeadroom;
 
     private final ElasticsearchClient esClient;
     private final ElasticsearchAsyncClient esAsyncClient;
     private final StorageInfoHelper storageInfoHelper;
+    private final IngestionProgressTracker progressTracker;
+    private final BulkRequestBudget bulkRequestBudget;
+    private int sharedIndexGeneration = 1;
 
     @Override
     public String create() {
         try {
-            CreateIndexResponse response = esClient.indices().create(c -> c
-                    .index(UUID.randomUUID().toString())
-            );
-            String indexId = response.index();
-            StorageInfo info = StorageInfo.builder()
-                    .storageId(indexId)
-                    .status(StorageStatus.CREATED)
-                    .build();
-            storageInfoHelper.getStorageInfoRepository().save(info);
-            return indexId;
+            String indexId = createIndex(UUID.randomUUID().toString(), s -> applyLoadSettings(s
+                    .numberOfShards(Integer.toString(numberOfShards))), false);
+            return saveStorageInfo(indexId);
         } catch (Exception exc) {
             throw new StorageException("Failed to create elastic storage", exc);
         }
     }
 
+    /**
+     * Datasets of up to {@code elasticsearch.shared-index.max-rows} rows are put into the shared index
+     * under a key of their own instead of getting a dedicated index, so small datasets do not cost a shard each
+     */
+    @Override
+    public String create(long expectedRows) {
+        if (!sharedIndexEnabled || expectedRows < 0 || expectedRows > sharedIndexMaxRows) {
+            return create();
+        }
+        try {
+            String index = acquireSharedIndex();
+            return saveStorageInfo(IndexLayout.shared(index, UUID.randomUUID().toString()).storageId());
+        } catch (Exception exc) {
+            throw new StorageException("Failed to create elastic storage", exc);
+        }
+    }
+
+    /**
+     * Picks the shared index for a new storage. Fields of deleted datasets stay in the mapping, so once
+     * the mapping gets within {@code elasticsearch.shared-index.field-headroom} fields of its limit, new storages
+     * roll over to the next shared index ({@code <name>-2}, {@code <name>-3}, etc.). Storages keep the index
+     * they were created in, as it is a part of their ids.
+     */
+    private synchronized String acquireSharedIndex() throws IOException {
+        while (true) {
+            String index = sharedIndexGeneration == 1
+                    ? sharedIndexName
+                    : sharedIndexName + "-" + sharedIndexGeneration;
+            if (!isIndexExists(index)) {
+                createSharedIndex(index);
+                return index;
+            }
+            int fields = countMappedFields(index);
+            if (fields + sharedIndexFieldHeadroom <= sharedIndexMaxFields) {
+                return index;
+            }
+            log.info("Shared index {} has {} of {} fields mapped, rolling over to the next one",
+                    index, fields, sharedIndexMaxFields);
+            sharedIndexGeneration++;
+        }
+    }
+
+    private int countMappedFields(String index) throws IOException {
+        return countFields(esClient.indices().getMapping(g -> g
+                .index(index)
+        ).get(index).mappings().properties());
+    }
+
+    /**
+     * Counts fields the way the field limit does: object fields and multi-fields count as well
+     */
+    private static int countFields(Map<String, Property> properties) {
+        int count = 0;
+        for (Property property : properties.values()) {
+            count++;
+            if (property._get() instanceof PropertyBase base) {
+                count += countFields(base.properties()) + countFields(base.fields());
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Shared index is created with serving settings right away, as it is never loaded in one go
+     */
+    private void createSharedIndex(String index) throws IOException {
+        try {
+            createIndex(index, s -> s
+                    .numberOfShards(Integer.toString(sharedIndexShards))
+                    .numberOfReplicas(Integer.toString(numberOfReplicas))
+                    .refreshInterval(t -> t.time(refreshInterval))
+                    .mapping(m -> m
+                            .totalFields(t -> t.limit(sharedIndexMaxFields))), true);
+            log.info("Shared index {} created", index);
+        } catch (ElasticsearchException exc) {
+            // created concurrently by another storage
+            if (!"resource_already_exists_exception".equals(exc.error().type())) {
+                throw exc;
+            }
+        }
+    }
+
+    /**
+     * @param shared whether documents of several storages are kept in the index, distinguished by their keys
+     */
+    private String createIndex(String name, Function<IndexSettings.Builder, IndexSettings.Builder> settings,
+                               boolean shared) throws IOException {
+        List<Map<String, DynamicTemplate>> dynamicTemplates = List.of(Map.of("strings_as_text",
+                DynamicTemplate.of(d -> d
+                        .matchMappingType("string")
+                        .mapping(p -> p.text(t -> t)))));
+        CreateIndexResponse response = esClient.indices().create(c -> c
+                .index(name)
+                .settings(s -> settings.apply(s))
+                .mappings(m -> {
+                    m.dynamicTemplates(dynamicTemplates)
+                            .properties(TIE_BREAKER_ID, p -> p.long_(l -> l));
+                    if (shared) {
+                        m.properties(DATASET_KEY, p -> p.keyword(k -> k))
+                                .routing(r -> r.required(true));
+                    }
+                    return m;
+                })
+        );
+        return response.index();
+    }
+
+    private String saveStorageInfo(String storageId) {
+        StorageInfo info = StorageInfo.builder()
+                .storageId(storageId)
+                .status(StorageStatus.CREATED)
+                .build();
+        storageInfoHelper.getStorageInfoRepository().save(info);
+        return storageId;
+    }
+
     @Override
     public void fill(String storageId, Stream<JsonNode> in) {
+        String datasetKey = IndexLayout.of(storageId).datasetKey();
+        fillIndex(storageId, in.iterator(),
+                (inferrer, node) -> node.fields().forEachRemaining(field ->
+                        inferrer.observe(field.getKey(), field.getValue().asText())),
+                (node, rowNum) -> {
+                    ((ObjectNode) node).put(TIE_BREAKER_ID, rowNum);
+                    if (datasetKey != null) {
+                        ((ObjectNode) node).put(DATASET_KEY, datasetKey);
+                    }
+                    return objectMapper.writeValueAsBytes(node);
+                });
+    }
+
+    /**
+     * Writes column values straight into bulk request sources, so no JSON tree is built for a row
+     */
+    @Override
+    public void fillRows(String storageId, Rows rows) {
+        List<String> columns = rows.columns();
+        String datasetKey = IndexLayout.of(storageId).datasetKey();
+        JsonRowWriter writer = new JsonRowWriter(columns, TIE_BREAKER_ID,
+                datasetKey != null ? DATASET_KEY : null, datasetKey);
+        fillIndex(storageId, rows.values().iterator(),
+                (inferrer, values) -> {
+                    int count = Math.min(columns.size(), values.length);
+                    for (int i = 0; i < count; i++) {
+                        inferrer.observe(columns.get(i), values[i]);
+                    }
+                },
+                (values, rowNum) -> writer.write(values, rowNum));
+    }
+
+    private <T> void fillIndex(String storageId, Iterator<T> in, BiConsumer<MappingInferrer, T> sampler,
+                               RowSerializer<T> serializer) {
         if (isStorageReady(storageId)) {
             throw new StorageException("Storage already exists and filled",
                     "Elastic storage %s already exists and filled".formatted(storageId));
         }
         storageInfoHelper.setStatusAndSave(storageId, StorageStatus.LOADING);
-        BulkListener<Long> listener = new CustomBulkListener(storageId);
-        BulkIngester<Long> ingester = BulkIngester.of(b -> b
-                .client(esClient)
-                .maxOperations(downloadBatchSize)
-                .maxConcurrentRequests(maxConcurrentRequests)
-                .flushInterval(5, TimeUnit.SECONDS)
-                .listener(listener)
-        );
+        IngestionProgress progress = progressTracker.track(storageId);
+        IndexLayout layout = IndexLayout.of(storageId);
+        AdaptiveBulkIngester ingester = new AdaptiveBulkIngester(
+                layout, bulkSettings(), esAsyncClient::bulk, bulkRequestBudget, progress);
 
         long rowNum = 1;
-        try (ingester) {
-            Iterator<JsonNode> dataIterator = in.iterator();
+        try {
+            // mapping of the shared index is common for all its datasets, so their strings are left as text
+            Iterator<T> dataIterator = layout.isShared() ? in : applyInferredMapping(storageId, in, sampler);
             log.debug("[{}] Start filling index", storageId);
             while (dataIterator.hasNext()) {
-                ObjectNode node = (ObjectNode) dataIterator.next();
-                node.put(TIE_BREAKER_ID, rowNum);
-                String rowId = Long.toString(rowNum);
-
-                ingester.add(op -> op
-                                .index(idx -> idx
-                                        .index(storageId)
-                                        .id(rowId)
-                                        .document(node)
-                                ),
-                        rowNum
-                );
+                ingester.add(rowNum, serializer.serialize(dataIterator.next(), rowNum));
+                progress.addRows(1);
                 rowNum++;
             }
+            ingester.awaitIndexed();
+            progress.finish();
             storageInfoHelper.setStatusAndSave(storageId, StorageStatus.INDEXING);
             log.debug("[{}] Finish filling index", storageId);
-            refreshAsync(storageId);
+            finishLoadAsync(layout);
         } catch (Exception exc) {
+            ingester.abort();
             deleteStorage(storageId);
             throw new StorageException("Failed to fill the storage: " + exc.getMessage(),
                     "Failed to fill elastic storage " + storageId, exc);
         }
     }
 
-    private void refreshAsync(String storageId) {
+    private interface RowSerializer<T> {
+        /**
+         * @return JSON source of the row with the tie breaker id set to the row number
+         * (and the dataset key set for a storage in the shared index)
+         */
+        byte[] serialize(T row, long rowNum) throws IOException;
+    }
+
+    private AdaptiveBulkIngester.Settings bulkSettings() {
+        return new AdaptiveBulkIngester.Settings(downloadBatchSize, bulkMaxBytes, bulkFlushInterval,
+                maxConcurrentRequests, bulkLatencyThreshold, bulkMaxRetries, bulkInitialBackoff, bulkMaxBackoff);
+    }
+
+    /**
+     * Samples first rows of the data to infer column types and puts explicit mapping for them into the index
+     *
+     * @return iterator over all the data including sampled rows
+     */
+    private <T> Iterator<T> applyInferredMapping(String storageId, Iterator<T> dataIterator,
+                                                 BiConsumer<MappingInferrer, T> sampler) throws IOException {
+        List<T> sample = new ArrayList<>(mappingSampleSize);
+        MappingInferrer inferrer = new MappingInferrer(keywordMaxLength);
+        while (sample.size() < mappingSampleSize && dataIterator.hasNext()) {
+            T row = dataIterator.next();
+            sampler.accept(inferrer, row);
+            sample.add(row);
+        }
+        Map<String, Property> properties = inferrer.inferProperties();
+        if (!properties.isEmpty()) {
+            esClient.indices().putMapping(m -> m
+                    .index(storageId)
+                    .properties(properties));
+            log.debug("[{}] Inferred mapping applied: {}", storageId, inferrer.inferTypes());
+        }
+        Spliterator<T> rest = Spliterators.spliteratorUnknownSize(dataIterator, Spliterator.ORDERED);
+        return Stream.concat(sample.stream(), StreamSupport.stream(rest, false)).iterator();
+    }
+
+    /**
+     * With bulk load profile enabled indices are created without replicas and periodic refreshes
+     * (and optionally with async translog), which are restored only after the data is loaded
+     */
+    private IndexSettings.Builder applyLoadSettings(IndexSettings.Builder settings) {
+        if (!bulkLoadEnabled) {
+            return settings
+                    .numberOfReplicas(Integer.toString(numberOfReplicas))
+                    .refreshInterval(t -> t.time(refreshInterval));
+        }
+        settings
+                .numberOfReplicas("0")
+                .refreshInterval(t -> t.time("-1"));
+        if (bulkLoadAsyncTranslog) {
+            settings.translog(t -> t.durability(TranslogDurability.Async));
+        }
+        return settings;
+    }
+
+    /**
+     * Makes loaded data visible for search and then, with bulk load profile enabled, force merges the index
+     * (if {@code elasticsearch.bulk-load.max-segments} is set) and restores serving settings.
+     * Replicas are added after the merge, so they are copied from already merged segments.
+     * Failed restoration is retried with the bulk backoff, since the index is left without replicas until then.
+     * The shared index keeps its serving settings all the time and is only refreshed.
+     */
+    private void finishLoadAsync(IndexLayout layout) {
+        String storageId = layout.storageId();
         esAsyncClient.indices().refresh(r -> r
-                .index(storageId)
+                .index(layout.index())
         ).thenRun(() -> {
             storageInfoHelper.setStatusAndSave(storageId, READY);
             log.debug("[{}] Index refreshed and ready for search", storageId);
+        }).thenCompose(ignored -> bulkLoadEnabled && !layout.isShared()
+                ? restoreServingSettingsAsync(storageId, 1)
+                : CompletableFuture.completedFuture(null)
+        ).whenComplete((ignored, exc) -> {
+            if (exc != null) {
+                log.warn("[{}] Failed to finish index loading", storageId, exc);
+            }
         });
     }
 
+    private CompletableFuture<Void> restoreServingSettingsAsync(String storageId, int attempt) {
+        return restoreServingSettingsAsync(storageId).exceptionallyCompose(exc -> {
+            if (attempt > bulkMaxRetries) {
+                return CompletableFuture.failedFuture(exc);
+            }
+            long initial = bulkInitialBackoff.toMillis();
+            long delay = attempt >= 31 ? bulkMaxBackoff.toMillis()
+                    : Math.min(initial << (attempt - 1), bulkMaxBackoff.toMillis());
+            log.warn("[{}] Failed to restore index serving settings, retry {} of {} in {} ms",
+                    storageId, attempt, bulkMaxRetries, delay, exc);
+            return CompletableFuture.runAsync(() -> {
+            }, CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS)
+            ).thenCompose(ignored -> restoreServingSettingsAsync(storageId, attempt + 1));
+        });
+    }
+
+    private CompletableFuture<Void> restoreServingSettingsAsync(String storageId) {
+        CompletableFuture<?> merge = bulkLoadMaxSegments > 0
+                ? esAsyncClient.indices().forcemerge(f -> f
+                        .index(storageId)
+                        .maxNumSegments(bulkLoadMaxSegments))
+                .thenRun(() -> log.debug("[{}] Index force merged to {} segments", storageId, bulkLoadMaxSegments))
+                : CompletableFuture.completedFuture(null);
+        return merge.thenCompose(ignored -> esAsyncClient.indices().putSettings(p -> p
+                .index(storageId)
+                .settings(s -> {
+                    s.numberOfReplicas(Integer.toString(numberOfReplicas))
+                            .refreshInterval(t -> t.time(refreshInterval));
+                    if (bulkLoadAsyncTranslog) {
+                        s.translog(t -> t.durability(TranslogDurability.Request));
+                    }
+                    return s;
+                })
+        )).thenRun(() -> log.debug("[{}] Index serving settings restored", storageId));
+    }
+
+    /**
+     * Exports the index through a point in time, reading {@code elasticsearch.download.slices} slices of it
+     * concurrently and merging them back into row order.
+     *
+     * @apiNote Returned stream must be explicitly closed
+     */
     @Override
     public Stream<JsonNode> getAll(String storageId) {
         assertStorageIsReady(storageId);
+        IndexLayout layout = IndexLayout.of(storageId);
+        String pitId;
         try {
-            List<Hit<ObjectNode>> initHits = esClient.search(g1 -> g1
-                            .index(storageId)
-                            .size(downloadBatchSize)
-                            .query(q1 -> q1
-                                    .matchAll(m1 -> m1))
-                            .sort(s -> s
-                                    .field(FieldSort.of(f1 -> f1
-                                            .field(TIE_BREAKER_ID)
-                                            .order(SortOrder.Asc)))),
-                    ObjectNode.class
-            ).hits().hits();
-            return Stream.iterate(initHits,
-                            hits -> !hits.isEmpty(),
-                            hits -> nextPage(hits, storageId))
-                    .map(this::extractJsonDataFromHits)
-                    .flatMap(List::stream);
+            pitId = esClient.openPointInTime(p -> p
+                    .index(layout.index())
+                    .routing(layout.routing())
+                    .keepAlive(t -> t.time(exportKeepAlive))
+            ).id();
         } catch (Exception exc) {
             throw new StorageException("Failed to retrieve result",
-                    "Failed to retrieve full result from elastic storage " + storageId, exc);
+                    "Failed to open point in time for elastic storage " + storageId, exc);
         }
+        SlicedExport export = new SlicedExport(exportSlices,
+                (slice, searchAfter) -> fetchSlicePage(layout, pitId, slice, searchAfter));
+        Spliterator<ObjectNode> spliterator = Spliterators.spliteratorUnknownSize(export,
+                Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false)
+                .map(JsonNode.class::cast)
+                .onClose(() -> {
+                    export.close();
+                    closePointInTime(storageId, pitId);
+                });
     }
 
-    private List<Hit<ObjectNode>> nextPage(List<Hit<ObjectNode>> hits, String storageId) {
-        try {
-            long searchAfter = hits.getLast().sort().getFirst().longValue();
-            return esClient.search(g1 -> g1
-                            .index(storageId)
-                            .size(downloadBatchSize)
-                            .query(q1 -> q1
-                                    .matchAll(m1 -> m1))
-                            .sort(so1 -> so1
-                                    .field(FieldSort.of(f1 -> f1
-                                            .field(TIE_BREAKER_ID)
-                                            .order(SortOrder.Asc))))
-                            .searchAfter(searchAfter),
-                    ObjectNode.class
-            ).hits().hits();
-        } catch (IOException exc) {
-            throw new UncheckedIOException(exc);
-        }
+    private CompletableFuture<List<SlicedExport.Row>> fetchSlicePage(IndexLayout layout, String pitId, int slice,
+                                                                     Long searchAfter) {
+        return esAsyncClient.search(s -> {
+                            s.pit(p -> p
+                                            .id(pitId)
+                                            .keepAlive(t -> t.time(exportKeepAlive)))
+                                    .size(downloadBatchSize)
+                                    .trackTotalHits(t -> t.enabled(false))
+                                    .query(restrictToStorage(layout, Query.of(q -> q
+                                            .matchAll(m -> m))))
+                                    .sort(so -> so
+                                            .field(FieldSort.of(f -> f
+                                                    .field(TIE_BREAKER_ID)
+                                                    .order(SortOrder.Asc))));
+                            if (exportSlices > 1) {
+                                s.slice(sl -> sl
+                                        .id(Integer.toString(slice))
+                                        .max(exportSlices));
+                            }
+                            if (searchAfter != null) {
+                                s.searchAfter(searchAfter);
+                            }
+                            return s;
+                        },
+                        ObjectNode.class
+                )
+                .thenApply(response -> response.hits().hits().stream()
+                        .filter(hit -> hit.source() != null)
+                        .map(hit -> {
+                            ObjectNode source = hit.source();
+                            source.remove(TIE_BREAKER_ID);
+                            source.remove(DATASET_KEY);
+                            return new SlicedExport.Row(hit.sort().getFirst().longValue(), source);
+                        })
+                        .toList());
     }
 
-    private List<ObjectNode> extractJsonDataFromHits(List<Hit<ObjectNode>> hits) {
-        return hits.stream()
-                .filter(hit -> hit.source() != null)
-                .map(hit -> {
-                    ObjectNode source = hit.source();
-                    source.remove(TIE_BREAKER_ID);
-                    return source;
-                }).toList();
+    private void closePointInTime(String storageId, String pitId) {
+        esAsyncClient.closePointInTime(c -> c
+                .id(pitId)
+        ).whenComplete((response, exc) -> {
+            if (exc != null) {
+                log.warn("[{}] Failed to close point in time, it will expire on its own", storageId, exc);
+            }
+        });
     }
 
     @Override
     public Stream<JsonNode> getPage(String storageId, Pageable pageable) {
         assertStorageIsReady(storageId);
         try {
-            int size = pageable.getPageSize();
-            int page = pageable.getPageNumber();
-            log.debug("Retrieving documents page {} (size: {})", page, size);
-            long offset = pageable.getOffset();
-            SearchResponse<ObjectNode> response = esClient.search(g -> g
-                            .index(storageId)
-                            .size(size)
-                            .query(q -> q
-                                    .range(r -> r
-                                            .field(TIE_BREAKER_ID)
-                                            .gt(JsonData.of(offset))
-                                            .lte(JsonData.of(offset + size))))
-                            .sort(s -> s
-                                    .field(FieldSort.of(f1 -> f1
-                                            .field(TIE_BREAKER_ID)
-                                            .order(SortOrder.Asc)))),
-                    ObjectNode.class
-            );
-            log.debug("Retrieving documents page {} (size: {}) took {}", page, size, response.took());
-            return extractHitsAndComposeResult(response);
+            log.debug("Retrieving documents page {} (size: {})", pageable.getPageNumber(), pageable.getPageSize());
+            return extractPage(esClient.mget(composePageRequest(storageId, pageable), ObjectNode.class)).stream();
         } catch (Exception exc) {
             throw new StorageException("Failed to retrieve result",
                     "Failed to retrieve page result from elastic storage " + storageId, exc);
         }
     }
 
-    private Stream<JsonNode> extractHitsAndComposeResult(SearchResponse<ObjectNode> response) {
-        List<JsonNode> result = new LinkedList<>();
-        for (Hit<ObjectNode> hit : response.hits().hits()) {
-            ObjectNode source = hit.source();
-            if (source != null) {
-                source.remove(TIE_BREAKER_ID);
-                result.add(source);
+    /**
+     * Readiness is checked by the storage status only, a missing index fails the request itself
+     */
+    @Override
+    public CompletableFuture<List<JsonNode>> getPageAsync(String storageId, Pageable pageable) {
+        if (!storageInfoHelper.hasAnyOfStatuses(storageId, StorageStatus.INDEXING, READY)) {
+            return CompletableFuture.failedFuture(new NotReadyException("Storage not ready yet",
+                    "Elastic storage %s not ready yet".formatted(storageId)));
+        }
+        return esAsyncClient.mget(composePageRequest(storageId, pageable), ObjectNode.class)
+                .thenApply(ElasticsearchService::extractPage)
+                .exceptionallyCompose(exc -> CompletableFuture.failedFuture(new StorageException(
+                        "Failed to retrieve result",
+                        "Failed to retrieve page result from elastic storage " + storageId, unwrap(exc))));
+    }
+
+    /**
+     * Documents are indexed with row numbers as ids, so the page is fetched by ids without a search
+     */
+    private static MgetRequest composePageRequest(String storageId, Pageable pageable) {
+        IndexLayout layout = IndexLayout.of(storageId);
+        long offset = pageable.getOffset();
+        List<String> ids = LongStream.rangeClosed(offset + 1, offset + pageable.getPageSize())
+                .mapToObj(layout::documentId)
+                .toList();
+        return MgetRequest.of(m -> m
+                .index(layout.index())
+                .routing(layout.routing())
+                .ids(ids)
+                .sourceExcludes(TIE_BREAKER_ID, DATASET_KEY));
+    }
+
+    private static List<JsonNode> extractPage(MgetResponse<ObjectNode> response) {
+        List<JsonNode> result = new ArrayList<>(response.docs().size());
+        for (MultiGetResponseItem<ObjectNode> item : response.docs()) {
+            if (item.isFailure()) {
+                throw new IllegalStateException(item.failure().error().reason());
+            }
+            GetResult<ObjectNode> doc = item.result();
+            if (!doc.found() || doc.source() == null) {
+                // rows are numbered contiguously, so the first missing one is past the end
+                break;
             }
+            result.add(doc.source());
         }
-        return result.stream();
+        return result;
+    }
+
+    private static Throwable unwrap(Throwable exc) {
+        return exc instanceof CompletionException && exc.getCause() != null ? exc.getCause() : exc;
     }
 
     @Override
@@ -235,10 +593,29 @@ public class ElasticsearchService implements Searcher, Storage<JsonNode, JsonNod
         deleteStorage(storageId);
     }
 
+    /**
+     * Documents of a storage in the shared index are deleted by its key, the index itself stays.
+     * Delete by query sees only refreshed documents, so the index is refreshed first
+     * (the documents of a failed filling may not have been refreshed yet).
+     */
     private void deleteStorage(String storageId) {
+        IndexLayout layout = IndexLayout.of(storageId);
         try {
-            esClient.indices().delete(d -> d
-                    .index(storageId));
+            if (layout.isShared()) {
+                esClient.indices().refresh(r -> r
+                        .index(layout.index()));
+                esClient.deleteByQuery(d -> d
+                        .index(layout.index())
+                        .routing(layout.routing())
+                        .conflicts(Conflicts.Proceed)
+                        .refresh(true)
+                        .query(restrictToStorage(layout, Query.of(q -> q
+                                .matchAll(m -> m)))));
+            } else {
+                esClient.indices().delete(d -> d
+                        .index(storageId));
+            }
+            progressTracker.remove(storageId);
         } catch (Exception exc) {
             throw new StorageException("Failed to delete storage",
                     "Failed to delete elastic storage " + storageId, exc);
@@ -247,39 +624,207 @@ public class ElasticsearchService implements Searcher, Storage<JsonNode, JsonNod
 
     @Override
     public JsonNode search(String storageId, String query, Pageable pageable) {
-        if (!isSearcherReady(storageId)) {
-            throw new NotReadyException("Searcher not ready yet",
-                    "Elastic storage %s not ready for search yet".formatted(storageId));
+        assertSearcherIsReady(storageId);
+        try {
+            return extractHitsWithHighlightsAndComposeResult(
+                    esClient.search(composeSearch(storageId, query, pageable), ObjectNode.class));
+        } catch (Exception exc) {
+            throw new SearcherException("Failed to perform search request",
+                    "Failed to perform search request in elastic storage " + storageId, exc);
+        }
+    }
+
+    /**
+     * Readiness is checked by the storage status only, a missing index fails the request itself
+     */
+    @Override
+    public CompletableFuture<JsonNode> searchAsync(String storageId, String query, Pageable pageable) {
+        if (!storageInfoHelper.hasAnyOfStatuses(storageId, READY)) {
+            return CompletableFuture.failedFuture(new NotReadyException("Searcher not ready yet",
+                    "Elastic storage %s not ready for search yet".formatted(storageId)));
+        }
+        return esAsyncClient.search(composeSearch(storageId, query, pageable), ObjectNode.class)
+                .<JsonNode>thenApply(this::extractHitsWithHighlightsAndComposeResult)
+                .exceptionallyCompose(exc -> CompletableFuture.failedFuture(new SearcherException(
+                        "Failed to perform search request",
+                        "Failed to perform search request in elastic storage " + storageId, unwrap(exc))));
+    }
+
+    private SearchRequest composeSearch(String storageId, String query, Pageable pageable) {
+        IndexLayout layout = IndexLayout.of(storageId);
+        return SearchRequest.of(g -> composeSearch(g
+                .index(layout.index())
+                .routing(layout.routing())
+                .from((int) pageable.getOffset())
+                .size(pageable.getPageSize()), layout, query));
+    }
+
+    /**
+     * Hits are sorted by score and then by row number, the cursor holds both sort values of the last hit.
+     * Pinned searches run against a point in time kept alive for {@code elasticsearch.search.cursor-keep-alive}
+     * between pages and closed after the last one. Cursor tokens are not signed, so hits of a point in time
+     * opened for another index are rejected along with cursors issued for another storage.
+     */
+    @Override
+    public JsonNode searchAfter(String storageId, String query, SearchCursor cursor, int size, boolean pinned) {
+        assertSearcherIsReady(storageId);
+        if (cursor != null) {
+            cursor.assertIssuedFor(storageId);
         }
+        IndexLayout layout = IndexLayout.of(storageId);
         try {
-            int from = (int) pageable.getOffset();
-            int size = pageable.getPageSize();
-            SearchResponse<ObjectNode> response = esClient.search(g -> g
-                            .index(storageId)
-                            .from(from)
-                            .size(size)
-                            .timeout(queryTimeout)
-                            .query(q -> q
-                                    .simpleQueryString(sqs -> sqs
-                                            .query(query)))
-                            .highlight(h -> h
-                                    .encoder(HighlighterEncoder.Html)
-                                    .numberOfFragments(0)
-                                    .preTags("<mark class=\"hlt\">")
-                                    .postTags("</mark>")
-                                    .type(HighlighterType.Plain)
-                                    .fields(
-                                            "*", hf -> hf)),
-                    ObjectNode.class
-            );
-            return extractHitsWithHighlightsAndComposeResult(response);
+            String pitId = cursor != null
+                    ? cursor.pitId()
+                    : pinned ? esClient.openPointInTime(p -> composePointInTime(p, layout)).id() : null;
+            SearchResponse<ObjectNode> response = esClient.search(
+                    composeSearchAfter(layout, query, cursor, size, pitId), ObjectNode.class);
+            return composeSearchAfterResult(storageId, response, size, pitId);
+        } catch (IllegalArgumentException exc) {
+            throw exc;
         } catch (Exception exc) {
             throw new SearcherException("Failed to perform search request",
                     "Failed to perform search request in elastic storage " + storageId, exc);
         }
     }
 
-    private JsonNode extractHitsWithHighlightsAndComposeResult(SearchResponse<ObjectNode> response) {
+    /**
+     * Readiness is checked by the storage status only, a missing index fails the request itself
+     *
+     * @see #searchAfter
+     */
+    @Override
+    public CompletableFuture<JsonNode> searchAfterAsync(String storageId, String query, SearchCursor cursor,
+                                                        int size, boolean pinned) {
+        if (!storageInfoHelper.hasAnyOfStatuses(storageId, READY)) {
+            return CompletableFuture.failedFuture(new NotReadyException("Searcher not ready yet",
+                    "Elastic storage %s not ready for search yet".formatted(storageId)));
+        }
+        try {
+            if (cursor != null) {
+                cursor.assertIssuedFor(storageId);
+            }
+        } catch (IllegalArgumentException exc) {
+            return CompletableFuture.failedFuture(exc);
+        }
+        IndexLayout layout = IndexLayout.of(storageId);
+        CompletableFuture<String> pitId = cursor != null
+                ? CompletableFuture.completedFuture(cursor.pitId())
+                : pinned ? esAsyncClient.openPointInTime(p -> composePointInTime(p, layout))
+                .thenApply(OpenPointInTimeResponse::id)
+                : CompletableFuture.completedFuture(null);
+        return pitId.thenCompose(pit -> esAsyncClient.search(
+                        composeSearchAfter(layout, query, cursor, size, pit), ObjectNode.class)
+                .<JsonNode>thenApply(response -> composeSearchAfterResult(storageId, response, size, pit))
+        ).exceptionallyCompose(exc -> {
+            Throwable cause = unwrap(exc);
+            return CompletableFuture.failedFuture(cause instanceof IllegalArgumentException
+                    ? cause
+                    : new SearcherException("Failed to perform search request",
+                    "Failed to perform search request in elastic storage " + storageId, cause));
+        });
+    }
+
+    private OpenPointInTimeRequest.Builder composePointInTime(OpenPointInTimeRequest.Builder builder,
+                                                              IndexLayout layout) {
+        return builder
+                .index(layout.index())
+                .routing(layout.routing())
+                .keepAlive(t -> t.time(cursorKeepAlive));
+    }
+
+    private SearchRequest composeSearchAfter(IndexLayout layout, String query, SearchCursor cursor, int size,
+                                             String pitId) {
+        return SearchRequest.of(g -> {
+            if (pitId != null) {
+                g.pit(p -> p
+                        .id(pitId)
+                        .keepAlive(t -> t.time(cursorKeepAlive)));
+            } else {
+                g.index(layout.index())
+                        .routing(layout.routing());
+            }
+            g.size(size)
+                    .sort(so -> so
+                            .score(sc -> sc.order(SortOrder.Desc)))
+                    .sort(so -> so
+                            .field(FieldSort.of(f -> f
+                                    .field(TIE_BREAKER_ID)
+                                    .order(SortOrder.Asc))));
+            if (cursor != null) {
+                g.searchAfter(FieldValue.of(cursor.score()), FieldValue.of(cursor.position()));
+            }
+            return composeSearch(g, layout, query);
+        });
+    }
+
+    /**
+     * Puts the cursor of the next page into the result, or closes the point in time after the last page
+     *
+     * @throws IllegalArgumentException if hits come from another index than the storage's one
+     */
+    private ObjectNode composeSearchAfterResult(String storageId, SearchResponse<ObjectNode> response, int size,
+                                                String pitId) {
+        IndexLayout layout = IndexLayout.of(storageId);
+        List<Hit<ObjectNode>> hits = response.hits().hits();
+        if (hits.stream().anyMatch(hit -> !layout.index().equals(hit.index()))) {
+            throw new IllegalArgumentException("Search cursor was issued for another dataset");
+        }
+        String nextPitId = response.pitId() != null ? response.pitId() : pitId;
+        ObjectNode result = extractHitsWithHighlightsAndComposeResult(response);
+        if (hits.size() == size && size > 0) {
+            List<FieldValue> sort = hits.getLast().sort();
+            result.put("cursor", new SearchCursor(storageId,
+                    sort.get(0).doubleValue(), sort.get(1).longValue(), nextPitId).encode());
+        } else {
+            result.putNull("cursor");
+            if (nextPitId != null) {
+                closePointInTime(storageId, nextPitId);
+            }
+        }
+        return result;
+    }
+
+    private SearchRequest.Builder composeSearch(SearchRequest.Builder builder, IndexLayout layout, String query) {
+        return builder
+                .timeout(queryTimeout)
+                .query(restrictToStorage(layout, Query.of(q -> q
+                        .simpleQueryString(sqs -> sqs
+                                .query(query)
+                                .lenient(true)))))
+                .highlight(h -> h
+                        .encoder(HighlighterEncoder.Html)
+                        .numberOfFragments(0)
+                        .preTags("<mark class=\"hlt\">")
+                        .postTags("</mark>")
+                        .type(HighlighterType.Plain)
+                        .fields(
+                                "*", hf -> hf));
+    }
+
+    /**
+     * Documents of other storages are filtered out in the shared index, a dedicated index needs no filter
+     */
+    private static Query restrictToStorage(IndexLayout layout, Query query) {
+        if (!layout.isShared()) {
+            return query;
+        }
+        return Query.of(q -> q
+                .bool(b -> b
+                        .must(query)
+                        .filter(f -> f
+                                .term(t -> t
+                                        .field(DATASET_KEY)
+                                        .value(layout.datasetKey())))));
+    }
+
+    private void assertSearcherIsReady(String storageId) {
+        if (!isSearcherReady(storageId)) {
+            throw new NotReadyException("Searcher not ready yet",
+                    "Elastic storage %s not ready for search yet".formatted(storageId));
+        }
+    }
+
+    private ObjectNode extractHitsWithHighlightsAndComposeResult(SearchResponse<ObjectNode> response) {
         ObjectNode resultNode = objectMapper.createObjectNode();
         resultNode.put("timeout", response.timedOut());
         TotalHits total = response.hits().total();
@@ -291,6 +836,7 @@ public class ElasticsearchService implements Searcher, Storage<JsonNode, JsonNod
             ObjectNode source = hit.source();
             if (source != null) {
                 long rowNum = source.remove(TIE_BREAKER_ID).asLong();
+                source.remove(DATASET_KEY);
                 ObjectNode dataNode = objectMapper.createObjectNode();
                 dataNode.put("num", rowNum);
 
@@ -310,12 +856,14 @@ public class ElasticsearchService implements Searcher, Storage<JsonNode, JsonNod
 
     @Override
     public boolean isStorageReady(String storageId) {
-        return isIndexExists(storageId) && storageInfoHelper.hasAnyOfStatuses(storageId, StorageStatus.INDEXING, READY);
+        return isIndexExists(IndexLayout.of(storageId).index())
+                && storageInfoHelper.hasAnyOfStatuses(storageId, StorageStatus.INDEXING, READY);
     }
 
     @Override
     public boolean isSearcherReady(String storageId) {
-        return isIndexExists(storageId) && storageInfoHelper.hasAnyOfStatuses(storageId, READY);
+        return isIndexExists(IndexLayout.of(storageId).index())
+                && storageInfoHelper.hasAnyOfStatuses(storageId, READY);
     }
 
     private boolean isIndexExists(String indexId) {
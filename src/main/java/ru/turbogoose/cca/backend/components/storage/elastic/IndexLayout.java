@@ -0,0 +1,50 @@
+package ru.turbogoose.cca.backend.components.storage.elastic;
+
+/**
+ * Where documents of an elastic storage live. A storage either owns a dedicated index named by its id,
+ * or shares a pooled index with other small storages. Documents of a shared storage carry its dataset key,
+ * are routed by it (so all of them live in one shard) and have ids prefixed with it.
+ * <p>
+ * The layout is encoded in the storage id: ids of shared storages are {@code <index>:<dataset key>},
+ * colon is not allowed in index names, so ids of dedicated indices never contain it.
+ *
+ * @param index      name of the index holding the documents
+ * @param datasetKey key of the storage in a shared index, or null for a dedicated index
+ */
+record IndexLayout(String index, String datasetKey) {
+    private static final char SEPARATOR = ':';
+
+    static IndexLayout dedicated(String index) {
+        return new IndexLayout(index, null);
+    }
+
+    static IndexLayout shared(String index, String datasetKey) {
+        return new IndexLayout(index, datasetKey);
+    }
+
+    static IndexLayout of(String storageId) {
+        int separator = storageId.indexOf(SEPARATOR);
+        return separator < 0
+                ? dedicated(storageId)
+                : shared(storageId.substring(0, separator), storageId.substring(separator + 1));
+    }
+
+    boolean isShared() {
+        return datasetKey != null;
+    }
+
+    String storageId() {
+        return isShared() ? index + SEPARATOR + datasetKey : index;
+    }
+
+    String documentId(long rowNum) {
+        return isShared() ? datasetKey + "_" + rowNum : Long.toString(rowNum);
+    }
+
+    /**
+     * @return routing of the documents, or null if the default routing by id is used
+     */
+    String routing() {
+        return datasetKey;
+    }
+}
@@ -0,0 +1,122 @@
+package ru.turbogoose.cca.backend.components.storage.elastic;
+
+import co.elastic.clients.elasticsearch._types.mapping.Property;
+
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Infers types of dataset columns from a sample of rows and composes explicit Elasticsearch field mappings for them.
+ * Numeric and date fields are mapped with {@code ignore_malformed}, so rows outside the sample that do not match
+ * the inferred type are still indexed (the malformed value is kept in the source, but is not searchable).
+ */
+public class MappingInferrer {
+    public static final String DATE_FORMAT = "strict_date_optional_time||yyyy-MM-dd HH:mm:ss";
+    private static final int KEYWORD_IGNORE_ABOVE = 256;
+    private static final Pattern LONG_PATTERN = Pattern.compile("[-+]?\\d{1,18}");
+    private static final Pattern DOUBLE_PATTERN = Pattern.compile("[-+]?(\\d+\\.?\\d*|\\.\\d+)([eE][-+]?\\d+)?");
+    private static final DateTimeFormatter[] DATE_FORMATTERS = {
+            DateTimeFormatter.ISO_DATE_TIME,
+            DateTimeFormatter.ISO_LOCAL_DATE,
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")
+    };
+
+    public enum FieldType {
+        LONG, DOUBLE, DATE, KEYWORD, TEXT
+    }
+
+    private final int keywordMaxLength;
+    private final Map<String, FieldStats> fieldStats = new LinkedHashMap<>();
+
+    public MappingInferrer(int keywordMaxLength) {
+        this.keywordMaxLength = keywordMaxLength;
+    }
+
+    public void observe(String field, String value) {
+        FieldStats stats = fieldStats.computeIfAbsent(field, f -> new FieldStats());
+        if (value == null || value.isEmpty()) {
+            return;
+        }
+        stats.nonEmptyValues++;
+        stats.maxLength = Math.max(stats.maxLength, value.length());
+        if (stats.longs && !LONG_PATTERN.matcher(value).matches()) {
+            stats.longs = false;
+        }
+        if (stats.doubles && !DOUBLE_PATTERN.matcher(value).matches()) {
+            stats.doubles = false;
+        }
+        if (stats.dates && !isDate(value)) {
+            stats.dates = false;
+        }
+        if (stats.noWhitespace && value.chars().anyMatch(Character::isWhitespace)) {
+            stats.noWhitespace = false;
+        }
+    }
+
+    private boolean isDate(String value) {
+        if (value.length() < 10 || !Character.isDigit(value.charAt(0))) {
+            return false;
+        }
+        for (DateTimeFormatter formatter : DATE_FORMATTERS) {
+            try {
+                formatter.parse(value);
+                return true;
+            } catch (DateTimeParseException ignored) {
+            }
+        }
+        return false;
+    }
+
+    public Map<String, FieldType> inferTypes() {
+        Map<String, FieldType> types = new LinkedHashMap<>();
+        fieldStats.forEach((field, stats) -> types.put(field, stats.inferType(keywordMaxLength)));
+        return types;
+    }
+
+    public Map<String, Property> inferProperties() {
+        Map<String, Property> properties = new LinkedHashMap<>();
+        inferTypes().forEach((field, type) -> properties.put(field, toProperty(type)));
+        return properties;
+    }
+
+    private Property toProperty(FieldType type) {
+        return switch (type) {
+            case LONG -> Property.of(p -> p.long_(l -> l.ignoreMalformed(true)));
+            case DOUBLE -> Property.of(p -> p.double_(d -> d.ignoreMalformed(true)));
+            case DATE -> Property.of(p -> p.date(d -> d.format(DATE_FORMAT).ignoreMalformed(true)));
+            case KEYWORD -> Property.of(p -> p.keyword(k -> k.ignoreAbove(KEYWORD_IGNORE_ABOVE)));
+            case TEXT -> Property.of(p -> p.text(t -> t));
+        };
+    }
+
+    private static class FieldStats {
+        private long nonEmptyValues;
+        private int maxLength;
+        private boolean longs = true;
+        private boolean doubles = true;
+        private boolean dates = true;
+        private boolean noWhitespace = true;
+
+        private FieldType inferType(int keywordMaxLength) {
+            if (nonEmptyValues == 0) {
+                return FieldType.TEXT;
+            }
+            if (longs) {
+                return FieldType.LONG;
+            }
+            if (doubles) {
+                return FieldType.DOUBLE;
+            }
+            if (dates) {
+                return FieldType.DATE;
+            }
+            if (noWhitespace && maxLength <= keywordMaxLength) {
+                return FieldType.KEYWORD;
+            }
+            return FieldType.TEXT;
+        }
+    }
+}
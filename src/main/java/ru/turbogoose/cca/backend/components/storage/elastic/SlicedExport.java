@@ -0,0 +1,121 @@
+package ru.turbogoose.cca.backend.components.storage.elastic;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import ru.turbogoose.cca.backend.components.storage.exception.StorageException;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Reads all rows of an index as several slices at once and merges them back into row order.
+ * Each slice is paged with search_after on the tie breaker id and the next page of a slice is requested
+ * as soon as the previous one arrives, so one request per slice is in flight while rows are consumed.
+ */
+class SlicedExport implements Iterator<ObjectNode>, AutoCloseable {
+    private final int slices;
+    private final PageFetcher fetcher;
+    private final PriorityQueue<SliceCursor> cursors = new PriorityQueue<>(
+            Comparator.comparingLong(SliceCursor::currentRowNum));
+    private final List<SliceCursor> allCursors = new ArrayList<>();
+    private boolean started;
+
+    SlicedExport(int slices, PageFetcher fetcher) {
+        this.slices = slices;
+        this.fetcher = fetcher;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (!started) {
+            start();
+        }
+        return !cursors.isEmpty();
+    }
+
+    @Override
+    public ObjectNode next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        SliceCursor cursor = cursors.poll();
+        ObjectNode row = cursor.current().source();
+        if (cursor.advance()) {
+            cursors.add(cursor);
+        }
+        return row;
+    }
+
+    private void start() {
+        started = true;
+        for (int slice = 0; slice < slices; slice++) {
+            allCursors.add(new SliceCursor(slice, fetcher.fetch(slice, null)));
+        }
+        for (SliceCursor cursor : allCursors) {
+            if (cursor.advance()) {
+                cursors.add(cursor);
+            }
+        }
+    }
+
+    /**
+     * Cancels pages that are still being fetched
+     */
+    @Override
+    public void close() {
+        allCursors.forEach(cursor -> cursor.nextPage.cancel(false));
+    }
+
+    record Row(long rowNum, ObjectNode source) {
+    }
+
+    interface PageFetcher {
+        /**
+         * @param searchAfter row number of the last row of the previous page, or null for the first page
+         * @return next page of rows of the slice ordered by row number, empty when the slice is over
+         */
+        CompletableFuture<List<Row>> fetch(int slice, Long searchAfter);
+    }
+
+    private class SliceCursor {
+        private final int slice;
+        private CompletableFuture<List<Row>> nextPage;
+        private List<Row> page = List.of();
+        private int index;
+
+        SliceCursor(int slice, CompletableFuture<List<Row>> firstPage) {
+            this.slice = slice;
+            this.nextPage = firstPage;
+        }
+
+        Row current() {
+            return page.get(index);
+        }
+
+        long currentRowNum() {
+            return current().rowNum();
+        }
+
+        /**
+         * @return false if the slice is over
+         */
+        boolean advance() {
+            if (index + 1 < page.size()) {
+                index++;
+                return true;
+            }
+            try {
+                page = nextPage.join();
+            } catch (CompletionException exc) {
+                throw new StorageException("Failed to retrieve result",
+                        "Failed to retrieve slice %d of the export".formatted(slice), exc.getCause());
+            }
+            index = 0;
+            if (page.isEmpty()) {
+                return false;
+            }
+            nextPage = fetcher.fetch(slice, page.getLast().rowNum());
+            return true;
+        }
+    }
+}
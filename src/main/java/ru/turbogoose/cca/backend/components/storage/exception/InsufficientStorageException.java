@@ -0,0 +1,9 @@
+package ru.turbogoose.cca.backend.components.storage.exception;
+
+import ru.turbogoose.cca.backend.common.exception.CustomException;
+
+public class InsufficientStorageException extends CustomException {
+    public InsufficientStorageException(String message, String userMessage) {
+        super(message, userMessage);
+    }
+}
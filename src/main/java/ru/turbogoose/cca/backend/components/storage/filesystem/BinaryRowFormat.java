@@ -0,0 +1,259 @@
+package ru.turbogoose.cca.backend.components.storage.filesystem;
+
+import ru.turbogoose.cca.backend.common.util.BlockCompressedFile;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Compact binary layout of tabular data. The file starts with a header holding column names once,
+ * followed by rows. Each row is prefixed with its length in bytes, so rows can be skipped without decoding,
+ * and consists of the number of values and the values themselves as length-prefixed UTF-8 strings.
+ * All lengths and counts are unsigned varints. The file may be block-compressed as a whole
+ * (see {@link BlockCompressedFile}), in which case row positions point to the starts of compressed blocks.
+ * <pre>
+ * file   := MAGIC VERSION count name* row*
+ * row    := length count value*
+ * name, value := length utf8-bytes
+ * </pre>
+ */
+final class BinaryRowFormat {
+    private static final int MAGIC = 0x43434142; // "CCAB"
+    private static final int VERSION = 1;
+
+    private BinaryRowFormat() {
+    }
+
+    static class Writer implements Closeable {
+        private final OutputStream out;
+        private final RowBuffer row = new RowBuffer();
+
+        Writer(Path path, List<String> headerNames) throws IOException {
+            this(path, headerNames, 0);
+        }
+
+        /**
+         * @param compressionLevel zstd level the file is block-compressed with, or 0 to write it uncompressed
+         */
+        Writer(Path path, List<String> headerNames, int compressionLevel) throws IOException {
+            this.out = BlockCompressedFile.newOutputStream(path, compressionLevel);
+            DataOutputStream header = new DataOutputStream(out);
+            header.writeInt(MAGIC);
+            header.writeInt(VERSION);
+            RowBuffer names = new RowBuffer();
+            names.writeVarInt(headerNames.size());
+            headerNames.forEach(names::writeString);
+            names.writeTo(out);
+        }
+
+        /**
+         * Ends the current block of a compressed file, so it should be called only for rows that are to be sought
+         *
+         * @return position in the file the next row can be read from
+         */
+        long position() throws IOException {
+            return BlockCompressedFile.checkpoint(out);
+        }
+
+        void writeRow(Iterable<String> values, int count) throws IOException {
+            row.reset();
+            row.writeVarInt(count);
+            values.forEach(row::writeString);
+            RowBuffer.writeVarInt(out, row.size());
+            row.writeTo(out);
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    static class Reader implements Closeable {
+        private final List<String> headerNames;
+        private InputStream in;
+        private byte[] buffer = new byte[1024];
+
+        /**
+         * @param position position of a row to start reading from, or 0 to start from the first row
+         */
+        Reader(Path path, long position) throws IOException {
+            this.in = BlockCompressedFile.open(path, 0);
+            try {
+                DataInputStream header = new DataInputStream(in);
+                if (header.readInt() != MAGIC || header.readInt() != VERSION) {
+                    throw new IOException("Unsupported binary row file " + path);
+                }
+                int count = readVarInt();
+                List<String> names = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    names.add(readString());
+                }
+                this.headerNames = List.copyOf(names);
+                if (position > 0) {
+                    in.close();
+                    this.in = BlockCompressedFile.open(path, position);
+                }
+            } catch (IOException exc) {
+                in.close();
+                throw exc;
+            }
+        }
+
+        List<String> getHeaderNames() {
+            return headerNames;
+        }
+
+        /**
+         * @return values of the next row or null if there are no more rows
+         */
+        String[] readRow() throws IOException {
+            int length = readVarIntOrEof();
+            if (length < 0) {
+                return null;
+            }
+            if (buffer.length < length) {
+                buffer = new byte[Math.max(length, buffer.length * 2)];
+            }
+            readFully(buffer, length);
+            int[] offset = {0};
+            int count = RowBuffer.readVarInt(buffer, offset);
+            String[] values = new String[count];
+            for (int i = 0; i < count; i++) {
+                int valueLength = RowBuffer.readVarInt(buffer, offset);
+                values[i] = new String(buffer, offset[0], valueLength, StandardCharsets.UTF_8);
+                offset[0] += valueLength;
+            }
+            return values;
+        }
+
+        /**
+         * @return false if there are no more rows
+         */
+        boolean skipRow() throws IOException {
+            int length = readVarIntOrEof();
+            if (length < 0) {
+                return false;
+            }
+            long remaining = length;
+            while (remaining > 0) {
+                long skipped = in.skip(remaining);
+                if (skipped <= 0) {
+                    throw new EOFException("Unexpected end of binary row file");
+                }
+                remaining -= skipped;
+            }
+            return true;
+        }
+
+        private String readString() throws IOException {
+            int length = readVarInt();
+            byte[] bytes = new byte[length];
+            readFully(bytes, length);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private void readFully(byte[] target, int length) throws IOException {
+            if (in.readNBytes(target, 0, length) != length) {
+                throw new EOFException("Unexpected end of binary row file");
+            }
+        }
+
+        private int readVarInt() throws IOException {
+            int value = readVarIntOrEof();
+            if (value < 0) {
+                throw new EOFException("Unexpected end of binary row file");
+            }
+            return value;
+        }
+
+        private int readVarIntOrEof() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = in.read();
+                if (b == -1) {
+                    if (shift == 0) {
+                        return -1;
+                    }
+                    throw new EOFException("Unexpected end of binary row file");
+                }
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint in binary row file");
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Growable byte buffer a row is encoded into before its length is known
+     */
+    private static class RowBuffer {
+        private byte[] bytes = new byte[1024];
+        private int size;
+
+        void reset() {
+            size = 0;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void writeString(String value) {
+            byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(encoded.length);
+            ensureCapacity(encoded.length);
+            System.arraycopy(encoded, 0, bytes, size, encoded.length);
+            size += encoded.length;
+        }
+
+        void writeVarInt(int value) {
+            ensureCapacity(5);
+            while ((value & ~0x7F) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        void writeTo(OutputStream out) throws IOException {
+            out.write(bytes, 0, size);
+        }
+
+        private void ensureCapacity(int extra) {
+            if (size + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(size + extra, bytes.length * 2));
+            }
+        }
+
+        static void writeVarInt(OutputStream out, int value) throws IOException {
+            while ((value & ~0x7F) != 0) {
+                out.write((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            out.write(value);
+        }
+
+        static int readVarInt(byte[] bytes, int[] offset) {
+            int value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = bytes[offset[0]++];
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+        }
+    }
+}
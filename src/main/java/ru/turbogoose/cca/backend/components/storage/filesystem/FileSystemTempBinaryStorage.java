@@ -0,0 +1,250 @@
+package ru.turbogoose.cca.backend.components.storage.filesystem;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.csv.CSVRecord;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Service;
+import ru.turbogoose.cca.backend.components.storage.RowSource;
+import ru.turbogoose.cca.backend.components.storage.Rows;
+import ru.turbogoose.cca.backend.components.storage.Storage;
+import ru.turbogoose.cca.backend.components.storage.exception.NotReadyException;
+import ru.turbogoose.cca.backend.components.storage.exception.StorageException;
+import ru.turbogoose.cca.backend.components.storage.info.StorageInfo;
+import ru.turbogoose.cca.backend.components.storage.info.StorageInfoHelper;
+import ru.turbogoose.cca.backend.components.storage.progress.IngestionProgress;
+import ru.turbogoose.cca.backend.components.storage.progress.IngestionProgressTracker;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static ru.turbogoose.cca.backend.components.storage.info.StorageStatus.*;
+
+/**
+ * Secondary storage keeping rows in {@link BinaryRowFormat}, so reading them does not involve CSV parsing.
+ * Ids of its storages are paths of files with the {@code .bin} suffix.
+ *
+ * @see ru.turbogoose.cca.backend.components.storage.SecondaryStorageRouter
+ */
+@Service
+@Slf4j
+public class FileSystemTempBinaryStorage implements Storage<CSVRecord, JsonNode>, RowSource {
+    private static final String ID_SUFFIX = ".bin";
+
+    @Value("${storage.fstmp.index-interval:1000}")
+    private int indexInterval;
+    @Value("${storage.fstmp.compression-level:0}")
+    private int compressionLevel;
+
+    private final Path rootFolderPath;
+    private final StorageInfoHelper storageInfoHelper;
+    private final IngestionProgressTracker progressTracker;
+
+    public FileSystemTempBinaryStorage(@Value("${storage.fstmp.folder:#{null}}") String rootFolderPath,
+                                       StorageInfoHelper storageInfoHelper,
+                                       IngestionProgressTracker progressTracker,
+                                       TempStorageJanitor janitor) {
+        this.storageInfoHelper = storageInfoHelper;
+        this.progressTracker = progressTracker;
+        try {
+            this.rootFolderPath = rootFolderPath != null
+                    ? Files.createDirectories(Path.of(rootFolderPath))
+                    : Files.createTempDirectory(null);
+        } catch (IOException exc) {
+            throw new StorageException("Failed to instantiate storage",
+                    "Failed to create temp folder %s for FS binary storage".formatted(rootFolderPath), exc);
+        }
+        janitor.watch(this.rootFolderPath);
+    }
+
+    /**
+     * @return true if the storage id refers to a file of this storage
+     */
+    public boolean owns(String storageId) {
+        return storageId.endsWith(ID_SUFFIX);
+    }
+
+    @Override
+    public String create() {
+        try {
+            String storageId = Files.createTempFile(rootFolderPath, null, ID_SUFFIX).toString();
+            StorageInfo info = StorageInfo.builder()
+                    .storageId(storageId)
+                    .status(CREATED)
+                    .build();
+            storageInfoHelper.getStorageInfoRepository().save(info);
+            return storageId;
+        } catch (Exception exc) {
+            throw new StorageException("Failed to create storage",
+                    "Failed to create FS binary storage", exc);
+        }
+    }
+
+    @Override
+    public void fill(String storageId, Stream<CSVRecord> in) {
+        if (isStorageReady(storageId)) {
+            throw new StorageException("Storage already exists and filled",
+                    "FS binary storage %s already exists and filled".formatted(storageId));
+        }
+        storageInfoHelper.setStatusAndSave(storageId, LOADING);
+        IngestionProgress progress = progressTracker.track(storageId);
+        RowOffsetIndex.Builder index = new RowOffsetIndex.Builder(indexInterval);
+        try (in) {
+            writeRows(storageId, in.iterator(), index, progress);
+            index.build().save(storageId);
+            progress.finish();
+            storageInfoHelper.setStatusAndSave(storageId, READY);
+        } catch (Exception exc) {
+            deleteStorage(storageId);
+            throw new StorageException("Failed to fill the storage: " + ExceptionUtils.getRootCauseMessage(exc),
+                    "Failed to fill FS binary storage " + storageId, exc);
+        }
+    }
+
+    private void writeRows(String storageId, Iterator<CSVRecord> iterator,
+                           RowOffsetIndex.Builder index, IngestionProgress progress) throws IOException {
+        CSVRecord record = iterator.hasNext() ? iterator.next() : null;
+        List<String> headerNames = record != null ? record.getParser().getHeaderNames() : List.of();
+        try (BinaryRowFormat.Writer writer = new BinaryRowFormat.Writer(Path.of(storageId), headerNames,
+                compressionLevel)) {
+            long rowNum = 0;
+            while (record != null) {
+                if (rowNum % index.getInterval() == 0) {
+                    index.addCheckpoint(writer.position());
+                }
+                writer.writeRow(record, record.size());
+                progress.addRows(1);
+                rowNum++;
+                record = iterator.hasNext() ? iterator.next() : null;
+            }
+        }
+    }
+
+    /**
+     * @apiNote Returned stream must be explicitly closed
+     */
+    @Override
+    public Stream<JsonNode> getAll(String storageId) {
+        assertStorageIsReady(storageId);
+        return readRows(storageId, 0, 0).toJson();
+    }
+
+    /**
+     * @apiNote Returned rows must be explicitly closed
+     */
+    @Override
+    public Rows getAllRows(String storageId) {
+        assertStorageIsReady(storageId);
+        return readRows(storageId, 0, 0);
+    }
+
+    /**
+     * @apiNote Returned stream must be explicitly closed
+     */
+    @Override
+    public Stream<JsonNode> getPage(String storageId, Pageable pageable) {
+        assertStorageIsReady(storageId);
+        long offset = pageable.getOffset();
+        Optional<RowOffsetIndex.Checkpoint> checkpoint = RowOffsetIndex.load(storageId)
+                .flatMap(index -> index.floor(offset));
+        long position = checkpoint.map(RowOffsetIndex.Checkpoint::position).orElse(0L);
+        long rowsToSkip = offset - checkpoint.map(RowOffsetIndex.Checkpoint::row).orElse(0L);
+        return readRows(storageId, position, rowsToSkip).toJson()
+                .limit(pageable.getPageSize());
+    }
+
+    private Rows readRows(String storageId, long position, long rowsToSkip) {
+        BinaryRowFormat.Reader reader = null;
+        try {
+            reader = new BinaryRowFormat.Reader(Path.of(storageId), position);
+            for (long i = 0; i < rowsToSkip && reader.skipRow(); i++) {
+                // rows before the requested one are skipped without decoding
+            }
+            BinaryRowFormat.Reader openedReader = reader;
+            Spliterator<String[]> spliterator = Spliterators.spliteratorUnknownSize(
+                    new RowIterator(reader), Spliterator.ORDERED | Spliterator.NONNULL);
+            return new Rows(reader.getHeaderNames(), StreamSupport.stream(spliterator, false)
+                    .onClose(() -> closeReader(openedReader)));
+        } catch (IOException exc) {
+            if (reader != null) {
+                closeReader(reader);
+            }
+            throw new UncheckedIOException(exc);
+        }
+    }
+
+    private static void closeReader(BinaryRowFormat.Reader reader) {
+        try {
+            reader.close();
+        } catch (IOException exc) {
+            throw new UncheckedIOException(exc);
+        }
+    }
+
+    @Override
+    public void delete(String storageId) {
+        assertStorageIsReady(storageId);
+        deleteStorage(storageId);
+    }
+
+    private void deleteStorage(String storageId) {
+        try {
+            Files.deleteIfExists(Path.of(storageId));
+            RowOffsetIndex.delete(storageId);
+            progressTracker.remove(storageId);
+        } catch (Exception exc) {
+            throw new StorageException("Failed to delete storage",
+                    "Failed to delete FS binary storage " + storageId, exc);
+        }
+    }
+
+    @Override
+    public boolean isStorageReady(String storageId) {
+        return Files.exists(Path.of(storageId)) && storageInfoHelper.hasAnyOfStatuses(storageId, READY);
+    }
+
+    private void assertStorageIsReady(String storageId) {
+        if (!isStorageReady(storageId)) {
+            throw new NotReadyException("Storage not ready yet",
+                    "FS binary storage %s not ready yet".formatted(storageId));
+        }
+    }
+
+    private static class RowIterator implements Iterator<String[]> {
+        private final BinaryRowFormat.Reader reader;
+        private String[] next;
+
+        RowIterator(BinaryRowFormat.Reader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null) {
+                try {
+                    next = reader.readRow();
+                } catch (IOException exc) {
+                    throw new UncheckedIOException(exc);
+                }
+            }
+            return next != null;
+        }
+
+        @Override
+        public String[] next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            String[] row = next;
+            next = null;
+            return row;
+        }
+    }
+}
@@ -7,29 +7,51 @@ import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Pageable;
 import org.springframework.stereotype.Service;
+import ru.turbogoose.cca.backend.common.util.BlockCompressedFile;
 import ru.turbogoose.cca.backend.common.util.CsvUtil;
+import ru.turbogoose.cca.backend.common.util.FileReadMode;
+import ru.turbogoose.cca.backend.components.storage.RowSource;
+import ru.turbogoose.cca.backend.components.storage.Rows;
 import ru.turbogoose.cca.backend.components.storage.Storage;
 import ru.turbogoose.cca.backend.components.storage.exception.NotReadyException;
 import ru.turbogoose.cca.backend.components.storage.exception.StorageException;
 import ru.turbogoose.cca.backend.components.storage.info.StorageInfo;
 import ru.turbogoose.cca.backend.components.storage.info.StorageInfoHelper;
+import ru.turbogoose.cca.backend.components.storage.progress.IngestionProgress;
+import ru.turbogoose.cca.backend.components.storage.progress.IngestionProgressTracker;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
 import java.util.stream.Stream;
 
 import static ru.turbogoose.cca.backend.components.storage.info.StorageStatus.*;
 
 @Service
 @Slf4j
-public class FileSystemTempCsvStorage implements Storage<CSVRecord, JsonNode> {
+public class FileSystemTempCsvStorage implements Storage<CSVRecord, JsonNode>, RowSource {
+    @Value("${storage.fstmp.index-interval:1000}")
+    private int indexInterval;
+    @Value("${storage.fstmp.read-mode:STREAM}")
+    private FileReadMode readMode;
+    @Value("${storage.fstmp.compression-level:0}")
+    private int compressionLevel;
+
     private final Path rootFolderPath;
     private final StorageInfoHelper storageInfoHelper;
+    private final IngestionProgressTracker progressTracker;
 
     public FileSystemTempCsvStorage(@Value("${storage.fstmp.folder:#{null}}") String rootFolderPath,
-                                    StorageInfoHelper storageInfoHelper) {
+                                    StorageInfoHelper storageInfoHelper,
+                                    IngestionProgressTracker progressTracker,
+                                    TempStorageJanitor janitor) {
         this.storageInfoHelper = storageInfoHelper;
+        this.progressTracker = progressTracker;
         try {
             this.rootFolderPath = rootFolderPath != null
                     ? Files.createDirectories(Path.of(rootFolderPath))
@@ -38,6 +60,7 @@ public class FileSystemTempCsvStorage implements Storage<CSVRecord, JsonNode> {
             throw new StorageException("Failed to instantiate storage",
                     "Failed to create temp folder %s for FS storage".formatted(rootFolderPath), exc);
         }
+        janitor.watch(this.rootFolderPath);
     }
 
     @Override
@@ -63,8 +86,13 @@ public class FileSystemTempCsvStorage implements Storage<CSVRecord, JsonNode> {
                     "FS storage %s already exists and filled".formatted(storageId));
         }
         storageInfoHelper.setStatusAndSave(storageId, LOADING);
+        IngestionProgress progress = progressTracker.track(storageId);
+        RowOffsetIndex.Builder index = new RowOffsetIndex.Builder(indexInterval);
         try (in) {
-            CsvUtil.writeCsvStreamToFile(in, storageId);
+            CsvUtil.writeCsvStreamToFile(in.peek(record -> progress.addRows(1)), storageId,
+                    index.getInterval(), index::addCheckpoint, compressionLevel);
+            index.build().save(storageId);
+            progress.finish();
             storageInfoHelper.setStatusAndSave(storageId, READY);
         } catch (Exception exc) {
             deleteStorage(storageId);
@@ -73,31 +101,117 @@ public class FileSystemTempCsvStorage implements Storage<CSVRecord, JsonNode> {
         }
     }
 
+    /**
+     * Writes a chunk of raw CSV data at the given position of the storage file, discarding anything stored after it.
+     * Rewriting from the last acknowledged position makes retries of partially received chunks safe.
+     *
+     * @return storage file size after the chunk is written
+     */
+    public long append(String storageId, long position, InputStream in) {
+        if (!storageInfoHelper.hasAnyOfStatuses(storageId, CREATED, LOADING)) {
+            throw new StorageException("Storage already filled",
+                    "FS storage %s already filled and can not be appended".formatted(storageId));
+        }
+        storageInfoHelper.setStatusAndSave(storageId, LOADING);
+        try (FileChannel channel = FileChannel.open(Path.of(storageId), StandardOpenOption.WRITE)) {
+            channel.truncate(position);
+            channel.position(position);
+            in.transferTo(Channels.newOutputStream(channel));
+            channel.force(false);
+            return channel.position();
+        } catch (Exception exc) {
+            throw new StorageException("Failed to append to the storage: " + ExceptionUtils.getRootCauseMessage(exc),
+                    "Failed to append chunk to FS storage " + storageId, exc);
+        }
+    }
+
+    /**
+     * Finishes filling the storage through {@link #append}, validates its content and indexes it
+     *
+     * @return number of data rows in the storage
+     */
+    public long seal(String storageId) {
+        try (Stream<CSVRecord> records = CsvUtil.readCsvStreamFromFile(storageId, readMode);
+             InputStream in = openRaw(storageId)) {
+            long rows = records.count();
+            RowOffsetIndex.scan(in, indexInterval).save(storageId);
+            storageInfoHelper.setStatusAndSave(storageId, READY);
+            return rows;
+        } catch (Exception exc) {
+            throw new StorageException("Failed to seal the storage: " + ExceptionUtils.getRootCauseMessage(exc),
+                    "Uploaded data in FS storage %s is not a valid CSV".formatted(storageId), exc);
+        }
+    }
+
+    /**
+     * Opens CSV content of the storage, decompressing it if the storage is block-compressed
+     *
+     * @apiNote Returned stream must be explicitly closed
+     */
+    public InputStream openRaw(String storageId) {
+        try {
+            return BlockCompressedFile.open(Path.of(storageId), 0);
+        } catch (IOException exc) {
+            throw new StorageException("Failed to open the storage",
+                    "Failed to open FS storage " + storageId, exc);
+        }
+    }
+
+    /**
+     * Deletes the storage regardless of its status, e.g. when an upload into it is aborted
+     */
+    public void discard(String storageId) {
+        deleteStorage(storageId);
+    }
+
     /**
      * @apiNote Returned stream must be explicitly closed
      */
     @Override
     public Stream<JsonNode> getAll(String storageId) {
         assertStorageIsReady(storageId);
-        return CsvUtil.readCsvStreamFromFile(storageId)
+        return CsvUtil.readCsvStreamFromFile(storageId, readMode)
                 .map(CsvUtil::csvRecordToJsonNode);
     }
 
     /**
+     * @apiNote Returned rows must be explicitly closed
+     */
+    @Override
+    public Rows getAllRows(String storageId) {
+        assertStorageIsReady(storageId);
+        return new Rows(CsvUtil.readCsvHeaderNames(storageId),
+                CsvUtil.readCsvStreamFromFile(storageId, readMode).map(CSVRecord::values));
+    }
+
+    /**
+     * Starts reading from the closest indexed row preceding the page, so only rows after it are parsed and skipped.
+     * Storages without index are read from the beginning.
+     *
      * @apiNote Returned stream must be explicitly closed
      */
     @Override
     public Stream<JsonNode> getPage(String storageId, Pageable pageable) {
-
         assertStorageIsReady(storageId);
         long offset = pageable.getOffset();
         int size = pageable.getPageSize();
-        return CsvUtil.readCsvStreamFromFile(storageId)
-                .skip(offset)
+        return readFrom(storageId, offset)
                 .limit(size)
                 .map(CsvUtil::csvRecordToJsonNode);
     }
 
+    private Stream<CSVRecord> readFrom(String storageId, long row) {
+        Optional<RowOffsetIndex> index = RowOffsetIndex.load(storageId);
+        if (index.isEmpty()) {
+            return CsvUtil.readCsvStreamFromFile(storageId, readMode).skip(row);
+        }
+        return index.get().floor(row)
+                .map(checkpoint -> CsvUtil.readCsvStreamFromFile(storageId, checkpoint.position(),
+                                CsvUtil.readCsvHeaderNames(storageId), readMode)
+                        .skip(row - checkpoint.row()))
+                .orElseGet(Stream::empty);
+    }
+
     @Override
     public void delete(String storageId) {
         assertStorageIsReady(storageId);
@@ -107,6 +221,8 @@ public class FileSystemTempCsvStorage implements Storage<CSVRecord, JsonNode> {
     private void deleteStorage(String storageId) {
         try {
             Files.deleteIfExists(Path.of(storageId));
+            RowOffsetIndex.delete(storageId);
+            progressTracker.remove(storageId);
         } catch (Exception exc) {
             throw new StorageException("Failed to delete storage",
                     "Failed to delete FS storage " + storageId, exc);
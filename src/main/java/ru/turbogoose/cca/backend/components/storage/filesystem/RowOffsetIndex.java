@@ -0,0 +1,160 @@
+package ru.turbogoose.cca.backend.components.storage.filesystem;
+
+import ru.turbogoose.cca.backend.common.util.CsvRecordScanner;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * Sparse index of a CSV storage file: byte positions of every {@code interval}-th data row.
+ * It is kept in a sidecar file next to the storage file and lets page reads start from
+ * the closest preceding checkpoint instead of parsing the file from the beginning.
+ */
+public class RowOffsetIndex {
+    private static final String SUFFIX = ".idx";
+
+    private final int interval;
+    private final long[] positions;
+
+    private RowOffsetIndex(int interval, long[] positions) {
+        this.interval = interval;
+        this.positions = positions;
+    }
+
+    public static Path pathFor(String storageId) {
+        return Path.of(storageId + SUFFIX);
+    }
+
+    /**
+     * @return id of the storage the given file is the index of, or empty if the file is not an index
+     */
+    public static Optional<String> storageIdOf(Path indexPath) {
+        String path = indexPath.toString();
+        return path.endsWith(SUFFIX)
+                ? Optional.of(path.substring(0, path.length() - SUFFIX.length()))
+                : Optional.empty();
+    }
+
+    public static Optional<RowOffsetIndex> load(String storageId) {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(pathFor(storageId))))) {
+            int interval = in.readInt();
+            long[] positions = new long[in.readInt()];
+            for (int i = 0; i < positions.length; i++) {
+                positions[i] = in.readLong();
+            }
+            return Optional.of(new RowOffsetIndex(interval, positions));
+        } catch (NoSuchFileException exc) {
+            return Optional.empty();
+        } catch (IOException exc) {
+            throw new UncheckedIOException(exc);
+        }
+    }
+
+    public void save(String storageId) {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(pathFor(storageId))))) {
+            out.writeInt(interval);
+            out.writeInt(positions.length);
+            for (long position : positions) {
+                out.writeLong(position);
+            }
+        } catch (IOException exc) {
+            throw new UncheckedIOException(exc);
+        }
+    }
+
+    public static void delete(String storageId) throws IOException {
+        Files.deleteIfExists(pathFor(storageId));
+    }
+
+    /**
+     * @return closest checkpoint at or before the given 0-based data row, or empty if the storage has no rows
+     */
+    public Optional<Checkpoint> floor(long row) {
+        if (positions.length == 0) {
+            return Optional.empty();
+        }
+        int checkpoint = (int) Math.min(row / interval, positions.length - 1);
+        return Optional.of(new Checkpoint((long) checkpoint * interval, positions[checkpoint]));
+    }
+
+    public record Checkpoint(long row, long position) {
+    }
+
+    /**
+     * Collects positions of rows while the storage file is being written
+     */
+    public static class Builder {
+        private final int interval;
+        private long[] positions = new long[64];
+        private int size;
+
+        public Builder(int interval) {
+            if (interval <= 0) {
+                throw new IllegalArgumentException("Index interval must be positive");
+            }
+            this.interval = interval;
+        }
+
+        public int getInterval() {
+            return interval;
+        }
+
+        /**
+         * @param position byte position of the next checkpoint row, i.e. of data rows 0, interval, 2 * interval, etc.
+         */
+        public void addCheckpoint(long position) {
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            positions[size++] = position;
+        }
+
+        public RowOffsetIndex build() {
+            return new RowOffsetIndex(interval, Arrays.copyOf(positions, size));
+        }
+    }
+
+    /**
+     * Builds the index of an existing CSV file by scanning its bytes for record boundaries.
+     * Line breaks inside quoted values and empty lines are skipped the same way the CSV parser does.
+     *
+     * @see CsvRecordScanner
+     */
+    public static RowOffsetIndex scan(InputStream in, int interval) throws IOException {
+        Builder builder = new Builder(interval);
+        InputStream bufferedIn = in instanceof BufferedInputStream ? in : new BufferedInputStream(in);
+        CsvRecordScanner scanner = new CsvRecordScanner();
+        long position = 0;
+        long lineStart = 0;
+        long dataRows = 0;
+        boolean headerSkipped = false;
+        boolean lineHasContent = false;
+        int b;
+        while ((b = bufferedIn.read()) != -1) {
+            if (scanner.isRecordEnd(b)) {
+                if (lineHasContent) {
+                    if (!headerSkipped) {
+                        headerSkipped = true;
+                    } else if (dataRows++ % interval == 0) {
+                        builder.addCheckpoint(lineStart);
+                    }
+                }
+                lineStart = position + 1;
+                lineHasContent = false;
+            } else if (b != '\r') {
+                lineHasContent = true;
+            }
+            position++;
+        }
+        if (lineHasContent && headerSkipped && dataRows % interval == 0) {
+            builder.addCheckpoint(lineStart);
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,211 @@
+package ru.turbogoose.cca.backend.components.storage.filesystem;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import ru.turbogoose.cca.backend.common.util.Compression;
+import ru.turbogoose.cca.backend.components.storage.exception.InsufficientStorageException;
+import ru.turbogoose.cca.backend.components.storage.info.StorageInfoRepository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Keeps disk usage of the filesystem temp storages within {@code storage.fstmp.disk-budget} bytes
+ * and above {@code storage.fstmp.min-free-space} bytes of free space. Uploads reserve their expected size before
+ * any file is created and are rejected if it does not fit. Space taken by data already written is measured
+ * on disk, so reservations are conservative while the data is being written.
+ * <p>
+ * On startup files in the storage folders that do not belong to any known storage (e.g. left behind by a crash)
+ * are deleted.
+ */
+@Component
+@Slf4j
+public class TempStorageJanitor {
+    private static final Duration ORPHAN_MIN_AGE = Duration.ofMinutes(1);
+
+    private final long diskBudget;
+    private final long minFreeSpace;
+    private final double compressedUploadRatio;
+    private final StorageInfoRepository storageInfoRepository;
+    private final Set<Path> rootFolders = ConcurrentHashMap.newKeySet();
+    private final AtomicLong reservedBytes = new AtomicLong();
+    private final Instant startedAt = Instant.now();
+
+    public TempStorageJanitor(@Value("${storage.fstmp.disk-budget:0}") long diskBudget,
+                              @Value("${storage.fstmp.min-free-space:0}") long minFreeSpace,
+                              @Value("${storage.fstmp.compressed-upload-ratio:4}") double compressedUploadRatio,
+                              StorageInfoRepository storageInfoRepository) {
+        this.diskBudget = diskBudget;
+        this.minFreeSpace = minFreeSpace;
+        this.compressedUploadRatio = compressedUploadRatio;
+        this.storageInfoRepository = storageInfoRepository;
+    }
+
+    /**
+     * Registers a folder storage files are kept in
+     */
+    public void watch(Path rootFolder) {
+        rootFolders.add(rootFolder);
+    }
+
+    /**
+     * Reserves space for data about to be written into a new storage. The reservation should be closed once
+     * the data is written or discarded.
+     *
+     * @param expectedBytes expected size of the data, or -1 if unknown (then only the current usage is checked)
+     * @throws InsufficientStorageException if the data does not fit into the budget or into the free space
+     */
+    public Reservation reserve(long expectedBytes) {
+        long bytes = Math.max(expectedBytes, 0);
+        long reserved = reservedBytes.addAndGet(bytes);
+        Reservation reservation = new Reservation(bytes);
+        try {
+            if (diskBudget > 0) {
+                long used = getUsedBytes();
+                if (used + reserved > diskBudget) {
+                    throw new InsufficientStorageException(
+                            "Disk budget exceeded: %d bytes used, %d reserved, budget %d"
+                                    .formatted(used, reserved, diskBudget),
+                            "Not enough storage space for the dataset, try again later");
+                }
+            }
+            if (minFreeSpace > 0) {
+                long free = getUsableSpace();
+                if (free - reserved < minFreeSpace) {
+                    throw new InsufficientStorageException(
+                            "Not enough free disk space: %d bytes free, %d reserved, %d must be kept free"
+                                    .formatted(free, reserved, minFreeSpace),
+                            "Not enough storage space for the dataset, try again later");
+                }
+            }
+            return reservation;
+        } catch (RuntimeException exc) {
+            reservation.close();
+            throw exc;
+        }
+    }
+
+    /**
+     * Reserves space for an upload, which takes more space once decompressed if it is compressed. The size of
+     * the decompressed data is estimated by {@code storage.fstmp.compressed-upload-ratio}.
+     *
+     * @param uploadBytes size of the upload as sent, or -1 if unknown
+     * @see #reserve(long)
+     */
+    public Reservation reserve(long uploadBytes, Compression compression) {
+        return reserve(compression != Compression.NONE && uploadBytes > 0
+                ? (long) Math.min(uploadBytes * compressedUploadRatio, Long.MAX_VALUE)
+                : uploadBytes);
+    }
+
+    /**
+     * Checks that there is space left for more data of unknown size, e.g. a chunk appended to an existing storage
+     *
+     * @throws InsufficientStorageException if the budget is already exhausted
+     */
+    public void assertHasSpace() {
+        reserve(-1).close();
+    }
+
+    public long getUsedBytes() {
+        long used = 0;
+        for (Path root : rootFolders) {
+            for (Path file : listFiles(root)) {
+                try {
+                    used += Files.size(file);
+                } catch (IOException exc) {
+                    // the file has been deleted in the meantime
+                }
+            }
+        }
+        return used;
+    }
+
+    /**
+     * @return size of the storage file together with its sidecar files, or 0 if it is not a file storage
+     */
+    public long getUsedBytes(String storageId) {
+        long used = 0;
+        for (Path file : List.of(Path.of(storageId), RowOffsetIndex.pathFor(storageId))) {
+            try {
+                if (Files.isRegularFile(file)) {
+                    used += Files.size(file);
+                }
+            } catch (IOException exc) {
+                // the file has been deleted in the meantime
+            }
+        }
+        return used;
+    }
+
+    private long getUsableSpace() {
+        long free = Long.MAX_VALUE;
+        for (Path root : rootFolders) {
+            try {
+                free = Math.min(free, Files.getFileStore(root).getUsableSpace());
+            } catch (IOException exc) {
+                throw new UncheckedIOException(exc);
+            }
+        }
+        return free;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void reclaimOrphanFiles() {
+        for (Path root : rootFolders) {
+            long reclaimed = 0;
+            for (Path file : listFiles(root)) {
+                String storageId = RowOffsetIndex.storageIdOf(file).orElse(file.toString());
+                try {
+                    // recent files may belong to storages being created right now
+                    if (Files.getLastModifiedTime(file).toInstant().isBefore(startedAt.minus(ORPHAN_MIN_AGE))
+                            && storageInfoRepository.getByStorageId(storageId).isEmpty()) {
+                        long size = Files.size(file);
+                        Files.deleteIfExists(file);
+                        reclaimed += size;
+                        log.info("Orphan storage file {} deleted", file);
+                    }
+                } catch (IOException exc) {
+                    log.warn("Failed to reclaim orphan storage file {}", file, exc);
+                }
+            }
+            if (reclaimed > 0) {
+                log.info("{} bytes of orphan storage files reclaimed in {}", reclaimed, root);
+            }
+        }
+    }
+
+    private static List<Path> listFiles(Path root) {
+        try (Stream<Path> files = Files.list(root)) {
+            return files.filter(Files::isRegularFile).toList();
+        } catch (IOException exc) {
+            throw new UncheckedIOException(exc);
+        }
+    }
+
+    public class Reservation implements AutoCloseable {
+        private long bytes;
+
+        private Reservation(long bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public void close() {
+            reservedBytes.addAndGet(-bytes);
+            bytes = 0;
+        }
+    }
+}
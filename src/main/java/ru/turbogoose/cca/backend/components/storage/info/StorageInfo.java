@@ -27,6 +27,10 @@ public class StorageInfo {
     @Enumerated(EnumType.STRING)
     private StorageMode mode;
 
+    private Integer uploadedChunks;
+
+    private Long uploadedBytes;
+
     @ManyToOne
     private Dataset dataset;
 }
@@ -14,6 +14,12 @@ public class StorageInfoHelper {
         storageInfoRepository.updateStorageStatusById(storageId, status);
     }
 
+    public void setUploadProgressAndSave(StorageInfo storageInfo, int chunks, long bytes) {
+        storageInfoRepository.updateUploadProgressById(storageInfo.getStorageId(), chunks, bytes);
+        storageInfo.setUploadedChunks(chunks);
+        storageInfo.setUploadedBytes(bytes);
+    }
+
     public void updateStatus(StorageInfo storageInfo) {
         StorageInfo actualStorageInfo = getInfoByStorageIdOrThrow(storageInfo.getStorageId());
         storageInfo.setStatus(actualStorageInfo.getStatus());
@@ -16,4 +16,11 @@ public interface StorageInfoRepository extends JpaRepository<StorageInfo, Intege
     @Query("UPDATE StorageInfo s SET s.status=:status WHERE s.storageId=:storageId")
     void updateStorageStatusById(@Param("storageId") String storageId,
                                  @Param("status") StorageStatus status);
+
+    @Transactional
+    @Modifying(flushAutomatically = true)
+    @Query("UPDATE StorageInfo s SET s.uploadedChunks=:chunks, s.uploadedBytes=:bytes WHERE s.storageId=:storageId")
+    void updateUploadProgressById(@Param("storageId") String storageId,
+                                  @Param("chunks") int chunks,
+                                  @Param("bytes") long bytes);
 }
@@ -0,0 +1,412 @@
+package ru.turbogoose.cca.backend.components.storage.lucene;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.*;
+import org.apache.lucene.index.*;
+import org.apache.lucene.queryparser.simple.SimpleQueryParser;
+import org.apache.lucene.search.*;
+import org.apache.lucene.search.highlight.*;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
+import ru.turbogoose.cca.backend.components.storage.SearchCursor;
+import ru.turbogoose.cca.backend.components.storage.SearchableStorage;
+import ru.turbogoose.cca.backend.components.storage.exception.NotReadyException;
+import ru.turbogoose.cca.backend.components.storage.exception.SearcherException;
+import ru.turbogoose.cca.backend.components.storage.exception.StorageException;
+import ru.turbogoose.cca.backend.components.storage.info.StorageInfo;
+import ru.turbogoose.cca.backend.components.storage.info.StorageInfoHelper;
+import ru.turbogoose.cca.backend.components.storage.progress.IngestionProgress;
+import ru.turbogoose.cca.backend.components.storage.progress.IngestionProgressTracker;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import static ru.turbogoose.cca.backend.components.storage.info.StorageStatus.*;
+
+/**
+ * Primary storage on embedded Lucene indices kept on the local disk, so search does not need an Elasticsearch
+ * cluster. Storage id is the name of the index directory prefixed with {@code lucene:}, so storages are told apart
+ * from elastic ones regardless of the folder they are kept in. Without {@code storage.lucene.folder} indices are
+ * kept in a temporary folder and lost on restart. Search mirrors {@code simple_query_string} over all fields
+ * with the standard analyzer and whole-value HTML highlighting, as done by the Elasticsearch storage.
+ */
+@Service
+@Slf4j
+public class LuceneService implements SearchableStorage {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final String ID_PREFIX = "lucene:";
+    private static final String TIE_BREAKER_ID = "tbid";
+    private static final String FIELDS_COMMIT_KEY = "fields";
+    private static final String PRE_TAG = "<mark class=\"hlt\">";
+    private static final String POST_TAG = "</mark>";
+
+    @Value("${storage.lucene.ram-buffer-mb:64}")
+    private double ramBufferSizeMb;
+    @Value("${elasticsearch.download.batch.size:10000}")
+    private int downloadBatchSize;
+
+    private final Path rootFolderPath;
+    private final boolean persistent;
+    private final StorageInfoHelper storageInfoHelper;
+    private final IngestionProgressTracker progressTracker;
+    private final Analyzer analyzer = new StandardAnalyzer();
+    private final Map<String, DirectoryReader> readers = new ConcurrentHashMap<>();
+
+    public LuceneService(@Value("${storage.lucene.folder:#{null}}") String rootFolderPath,
+                         StorageInfoHelper storageInfoHelper,
+                         IngestionProgressTracker progressTracker) {
+        this.storageInfoHelper = storageInfoHelper;
+        this.progressTracker = progressTracker;
+        this.persistent = rootFolderPath != null;
+        try {
+            this.rootFolderPath = rootFolderPath != null
+                    ? Files.createDirectories(Path.of(rootFolderPath).toAbsolutePath())
+                    : Files.createTempDirectory(null).toAbsolutePath();
+        } catch (IOException exc) {
+            throw new StorageException("Failed to instantiate storage",
+                    "Failed to create folder %s for Lucene storage".formatted(rootFolderPath), exc);
+        }
+    }
+
+    /**
+     * @return true if the storage id refers to an index of this storage
+     */
+    public boolean owns(String storageId) {
+        return storageId.startsWith(ID_PREFIX);
+    }
+
+    /**
+     * @return true if indices are kept in an explicitly configured folder and survive restarts
+     */
+    public boolean isPersistent() {
+        return persistent;
+    }
+
+    private Path indexPath(String storageId) {
+        return rootFolderPath.resolve(storageId.substring(ID_PREFIX.length()));
+    }
+
+    @Override
+    public String create() {
+        try {
+            String storageId = ID_PREFIX + UUID.randomUUID();
+            Files.createDirectory(indexPath(storageId));
+            StorageInfo info = StorageInfo.builder()
+                    .storageId(storageId)
+                    .status(CREATED)
+                    .build();
+            storageInfoHelper.getStorageInfoRepository().save(info);
+            return storageId;
+        } catch (Exception exc) {
+            throw new StorageException("Failed to create storage",
+                    "Failed to create Lucene storage", exc);
+        }
+    }
+
+    @Override
+    public void fill(String storageId, Stream<JsonNode> in) {
+        if (isStorageReady(storageId)) {
+            throw new StorageException("Storage already exists and filled",
+                    "Lucene storage %s already exists and filled".formatted(storageId));
+        }
+        storageInfoHelper.setStatusAndSave(storageId, LOADING);
+        IngestionProgress progress = progressTracker.track(storageId);
+        IndexWriterConfig config = new IndexWriterConfig(analyzer)
+                .setOpenMode(IndexWriterConfig.OpenMode.CREATE)
+                .setRAMBufferSizeMB(ramBufferSizeMb);
+        try (in; Directory directory = FSDirectory.open(indexPath(storageId));
+             IndexWriter writer = new IndexWriter(directory, config)) {
+            Set<String> fields = new LinkedHashSet<>();
+            long rowNum = 1;
+            Iterator<JsonNode> iterator = in.iterator();
+            while (iterator.hasNext()) {
+                writer.addDocument(toDocument(iterator.next(), rowNum, fields));
+                progress.addRows(1);
+                rowNum++;
+            }
+            writer.setLiveCommitData(Map.of(FIELDS_COMMIT_KEY, objectMapper.writeValueAsString(fields)).entrySet());
+            writer.commit();
+            progress.finish();
+            storageInfoHelper.setStatusAndSave(storageId, READY);
+            log.debug("[{}] Lucene index filled with {} rows", storageId, rowNum - 1);
+        } catch (Exception exc) {
+            deleteStorage(storageId);
+            throw new StorageException("Failed to fill the storage: " + ExceptionUtils.getRootCauseMessage(exc),
+                    "Failed to fill Lucene storage " + storageId, exc);
+        }
+    }
+
+    private Document toDocument(JsonNode node, long rowNum, Set<String> fields) {
+        Document document = new Document();
+        document.add(new LongPoint(TIE_BREAKER_ID, rowNum));
+        document.add(new NumericDocValuesField(TIE_BREAKER_ID, rowNum));
+        document.add(new StoredField(TIE_BREAKER_ID, rowNum));
+        node.fields().forEachRemaining(field -> {
+            fields.add(field.getKey());
+            document.add(new TextField(field.getKey(), field.getValue().asText(), Field.Store.YES));
+        });
+        return document;
+    }
+
+    /**
+     * @apiNote Returned stream must be explicitly closed
+     */
+    @Override
+    public Stream<JsonNode> getAll(String storageId) {
+        assertStorageIsReady(storageId);
+        DirectoryReader reader = acquireReader(storageId);
+        try {
+            IndexSearcher searcher = new IndexSearcher(reader);
+            return Stream.iterate(0L, offset -> offset + downloadBatchSize)
+                    .map(offset -> readRows(searcher, offset, downloadBatchSize))
+                    .takeWhile(rows -> !rows.isEmpty())
+                    .flatMap(List::stream)
+                    .onClose(() -> releaseReader(reader));
+        } catch (RuntimeException exc) {
+            releaseReader(reader);
+            throw exc;
+        }
+    }
+
+    @Override
+    public Stream<JsonNode> getPage(String storageId, Pageable pageable) {
+        assertStorageIsReady(storageId);
+        DirectoryReader reader = acquireReader(storageId);
+        try {
+            return readRows(new IndexSearcher(reader), pageable.getOffset(), pageable.getPageSize()).stream();
+        } catch (Exception exc) {
+            throw new StorageException("Failed to retrieve result",
+                    "Failed to retrieve page result from Lucene storage " + storageId, exc);
+        } finally {
+            releaseReader(reader);
+        }
+    }
+
+    private List<JsonNode> readRows(IndexSearcher searcher, long offset, int size) {
+        try {
+            Query query = LongPoint.newRangeQuery(TIE_BREAKER_ID, offset + 1, offset + size);
+            Sort sort = new Sort(new SortField(TIE_BREAKER_ID, SortField.Type.LONG));
+            TopDocs topDocs = searcher.search(query, size, sort);
+            StoredFields storedFields = searcher.storedFields();
+            List<JsonNode> rows = new ArrayList<>(topDocs.scoreDocs.length);
+            for (ScoreDoc scoreDoc : topDocs.scoreDocs) {
+                rows.add(toJson(storedFields.document(scoreDoc.doc)));
+            }
+            return rows;
+        } catch (IOException exc) {
+            throw new UncheckedIOException(exc);
+        }
+    }
+
+    private ObjectNode toJson(Document document) {
+        ObjectNode json = objectMapper.createObjectNode();
+        for (IndexableField field : document.getFields()) {
+            if (!TIE_BREAKER_ID.equals(field.name())) {
+                json.put(field.name(), field.stringValue());
+            }
+        }
+        return json;
+    }
+
+    @Override
+    public JsonNode search(String storageId, String query, Pageable pageable) {
+        int from = (int) pageable.getOffset();
+        int size = pageable.getPageSize();
+        return search(storageId, query, (searcher, parsedQuery) -> {
+            TopDocs topDocs = searcher.search(parsedQuery, new TopScoreDocCollectorManager(from + size, Integer.MAX_VALUE));
+            return composeSearchResult(searcher, parsedQuery, topDocs, from);
+        });
+    }
+
+    /**
+     * Cursors point to the last hit by its score and document number. Filled indices are never modified,
+     * so document numbers are stable and searches are always pinned.
+     */
+    @Override
+    public JsonNode searchAfter(String storageId, String query, SearchCursor cursor, int size, boolean pinned) {
+        if (cursor != null) {
+            cursor.assertIssuedFor(storageId);
+            if (cursor.pitId() != null) {
+                throw new IllegalArgumentException("Search cursor was issued by another search engine");
+            }
+        }
+        ScoreDoc after = cursor != null ? new ScoreDoc((int) cursor.position(), (float) cursor.score()) : null;
+        return search(storageId, query, (searcher, parsedQuery) -> {
+            TopDocs topDocs = searcher.searchAfter(after, parsedQuery, size);
+            ObjectNode result = composeSearchResult(searcher, parsedQuery, topDocs, 0);
+            ScoreDoc[] hits = topDocs.scoreDocs;
+            if (hits.length == size && size > 0) {
+                ScoreDoc last = hits[hits.length - 1];
+                result.put("cursor", new SearchCursor(storageId, last.score, last.doc, null).encode());
+            } else {
+                result.putNull("cursor");
+            }
+            return result;
+        });
+    }
+
+    private JsonNode search(String storageId, String query, SearchAction action) {
+        if (!isSearcherReady(storageId)) {
+            throw new NotReadyException("Searcher not ready yet",
+                    "Lucene storage %s not ready for search yet".formatted(storageId));
+        }
+        DirectoryReader reader = acquireReader(storageId);
+        try {
+            IndexSearcher searcher = new IndexSearcher(reader);
+            List<String> fields = readFields(reader);
+            Map<String, Float> weights = new LinkedHashMap<>();
+            fields.forEach(field -> weights.put(field, 1.0f));
+            Query parsedQuery = Optional.ofNullable(new SimpleQueryParser(analyzer, weights).parse(query))
+                    .orElseGet(MatchNoDocsQuery::new);
+            return action.search(searcher, parsedQuery);
+        } catch (Exception exc) {
+            throw new SearcherException("Failed to perform search request",
+                    "Failed to perform search request in Lucene storage " + storageId, exc);
+        } finally {
+            releaseReader(reader);
+        }
+    }
+
+    private interface SearchAction {
+        ObjectNode search(IndexSearcher searcher, Query query) throws IOException, InvalidTokenOffsetsException;
+    }
+
+    private List<String> readFields(DirectoryReader reader) throws IOException {
+        String fields = reader.getIndexCommit().getUserData().get(FIELDS_COMMIT_KEY);
+        if (fields == null) {
+            return List.of();
+        }
+        return Arrays.asList(objectMapper.readValue(fields, String[].class));
+    }
+
+    private ObjectNode composeSearchResult(IndexSearcher searcher, Query query, TopDocs topDocs, int from)
+            throws IOException, InvalidTokenOffsetsException {
+        ObjectNode resultNode = objectMapper.createObjectNode();
+        resultNode.put("timeout", false);
+        resultNode.put("total", topDocs.totalHits.value);
+        ArrayNode resultArray = objectMapper.createArrayNode();
+        StoredFields storedFields = searcher.storedFields();
+        Map<String, Highlighter> highlighters = new HashMap<>();
+        for (int i = from; i < topDocs.scoreDocs.length; i++) {
+            Document document = storedFields.document(topDocs.scoreDocs[i].doc);
+            ObjectNode source = toJson(document);
+            for (IndexableField field : document.getFields()) {
+                if (TIE_BREAKER_ID.equals(field.name())) {
+                    continue;
+                }
+                Highlighter highlighter = highlighters.computeIfAbsent(field.name(),
+                        name -> createHighlighter(query, name));
+                String highlighted = highlighter.getBestFragment(analyzer, field.name(), field.stringValue());
+                if (highlighted != null) {
+                    source.put(field.name(), highlighted);
+                }
+            }
+            ObjectNode dataNode = objectMapper.createObjectNode();
+            dataNode.put("num", document.getField(TIE_BREAKER_ID).numericValue().longValue());
+            dataNode.set("src", source);
+            resultArray.add(dataNode);
+        }
+        resultNode.set("rows", resultArray);
+        return resultNode;
+    }
+
+    /**
+     * Highlights the whole value of the field, only with terms of the query matching this field
+     */
+    private Highlighter createHighlighter(Query query, String field) {
+        Highlighter highlighter = new Highlighter(
+                new SimpleHTMLFormatter(PRE_TAG, POST_TAG), new SimpleHTMLEncoder(), new QueryScorer(query, field));
+        highlighter.setTextFragmenter(new NullFragmenter());
+        highlighter.setMaxDocCharsToAnalyze(Integer.MAX_VALUE);
+        return highlighter;
+    }
+
+    private DirectoryReader acquireReader(String storageId) {
+        while (true) {
+            DirectoryReader reader = readers.computeIfAbsent(storageId, this::openReader);
+            if (reader.tryIncRef()) {
+                return reader;
+            }
+            // reader has just been closed by storage deletion
+            readers.remove(storageId, reader);
+            assertStorageIsReady(storageId);
+        }
+    }
+
+    private DirectoryReader openReader(String storageId) {
+        try {
+            return DirectoryReader.open(FSDirectory.open(indexPath(storageId)));
+        } catch (IOException exc) {
+            throw new StorageException("Failed to open storage",
+                    "Failed to open Lucene storage " + storageId, exc);
+        }
+    }
+
+    private void releaseReader(DirectoryReader reader) {
+        try {
+            reader.decRef();
+        } catch (IOException exc) {
+            throw new UncheckedIOException(exc);
+        }
+    }
+
+    @Override
+    public void delete(String storageId) {
+        assertStorageIsReady(storageId);
+        deleteStorage(storageId);
+    }
+
+    private void deleteStorage(String storageId) {
+        try {
+            DirectoryReader reader = readers.remove(storageId);
+            if (reader != null) {
+                reader.decRef();
+            }
+            FileSystemUtils.deleteRecursively(indexPath(storageId));
+            progressTracker.remove(storageId);
+        } catch (Exception exc) {
+            throw new StorageException("Failed to delete storage",
+                    "Failed to delete Lucene storage " + storageId, exc);
+        }
+    }
+
+    @Override
+    public boolean isStorageReady(String storageId) {
+        return Files.isDirectory(indexPath(storageId)) && storageInfoHelper.hasAnyOfStatuses(storageId, READY);
+    }
+
+    @Override
+    public boolean isSearcherReady(String storageId) {
+        return isStorageReady(storageId);
+    }
+
+    private void assertStorageIsReady(String storageId) {
+        if (!isStorageReady(storageId)) {
+            throw new NotReadyException("Storage not ready yet",
+                    "Lucene storage %s not ready yet".formatted(storageId));
+        }
+    }
+
+    @PreDestroy
+    public void closeReaders() {
+        readers.values().forEach(this::releaseReader);
+        readers.clear();
+    }
+}
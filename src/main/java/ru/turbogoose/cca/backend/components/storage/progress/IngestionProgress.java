@@ -0,0 +1,117 @@
+package ru.turbogoose.cca.backend.components.storage.progress;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters of a single storage fill. Rows acknowledged are reported only by storages
+ * which confirm ingested rows asynchronously (e.g. via bulk responses).
+ */
+public class IngestionProgress {
+    private final LongSupplier nanoClock;
+    private final long startedAtNanos;
+    private final AtomicLong rowsIngested = new AtomicLong();
+    private final AtomicLong rowsAcknowledged = new AtomicLong();
+    private final AtomicLong batchesAcknowledged = new AtomicLong();
+    private volatile boolean acknowledging;
+    private volatile LongSupplier bytesProcessed = () -> 0;
+    private volatile long expectedRows = -1;
+    private volatile long expectedBytes = -1;
+    private volatile long finishedAtNanos = -1;
+
+    public IngestionProgress() {
+        this(System::nanoTime);
+    }
+
+    IngestionProgress(LongSupplier nanoClock) {
+        this.nanoClock = nanoClock;
+        this.startedAtNanos = nanoClock.getAsLong();
+    }
+
+    public void addRows(long rows) {
+        rowsIngested.addAndGet(rows);
+    }
+
+    public void acknowledgeBatch(long rows) {
+        acknowledging = true;
+        rowsAcknowledged.addAndGet(rows);
+        batchesAcknowledged.incrementAndGet();
+    }
+
+    public void trackBytes(LongSupplier bytesProcessed, long expectedBytes) {
+        this.bytesProcessed = bytesProcessed;
+        this.expectedBytes = expectedBytes;
+    }
+
+    public void setExpectedRows(long expectedRows) {
+        this.expectedRows = expectedRows;
+    }
+
+    public void finish() {
+        if (finishedAtNanos == -1) {
+            finishedAtNanos = nanoClock.getAsLong();
+        }
+    }
+
+    public boolean isFinished() {
+        return finishedAtNanos != -1;
+    }
+
+    /**
+     * @return true if the fill finished more than the given time ago
+     */
+    public boolean isFinishedLongerThan(Duration duration) {
+        return isFinished() && nanoClock.getAsLong() - finishedAtNanos > duration.toNanos();
+    }
+
+    public long getRowsIngested() {
+        return rowsIngested.get();
+    }
+
+    public Long getRowsAcknowledged() {
+        return acknowledging ? rowsAcknowledged.get() : null;
+    }
+
+    public long getBatchesAcknowledged() {
+        return batchesAcknowledged.get();
+    }
+
+    public long getBytesProcessed() {
+        return bytesProcessed.getAsLong();
+    }
+
+    public double getElapsedSeconds() {
+        long until = isFinished() ? finishedAtNanos : nanoClock.getAsLong();
+        return (until - startedAtNanos) / 1e9;
+    }
+
+    public double getRowsPerSecond() {
+        double elapsed = getElapsedSeconds();
+        return elapsed > 0 ? getRowsIngested() / elapsed : 0;
+    }
+
+    /**
+     * Estimates remaining time by expected rows if known or by expected bytes otherwise
+     *
+     * @return remaining seconds or null if there is not enough data for estimation
+     */
+    public Long getEtaSeconds() {
+        if (isFinished()) {
+            return 0L;
+        }
+        double elapsed = getElapsedSeconds();
+        if (expectedRows >= 0 && getRowsIngested() > 0) {
+            return estimate(expectedRows, getRowsIngested(), elapsed);
+        }
+        long bytes = getBytesProcessed();
+        if (expectedBytes >= 0 && bytes > 0) {
+            return estimate(expectedBytes, bytes, elapsed);
+        }
+        return null;
+    }
+
+    private long estimate(long expected, long done, double elapsed) {
+        return Math.round(Math.max(expected - done, 0) * elapsed / done);
+    }
+}
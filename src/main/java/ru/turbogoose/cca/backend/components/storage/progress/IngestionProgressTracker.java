@@ -0,0 +1,39 @@
+package ru.turbogoose.cca.backend.components.storage.progress;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory registry of storage fill progress. Progress of a storage is kept until the storage is deleted
+ * or for {@code storage.progress.retention} after the fill is finished, whichever comes first.
+ */
+@Component
+public class IngestionProgressTracker {
+    private final Map<String, IngestionProgress> progressByStorageId = new ConcurrentHashMap<>();
+
+    @Value("${storage.progress.retention:10m}")
+    private Duration retention = Duration.ofMinutes(10);
+
+    public IngestionProgress track(String storageId) {
+        evictFinished();
+        return progressByStorageId.computeIfAbsent(storageId, id -> new IngestionProgress());
+    }
+
+    public Optional<IngestionProgress> get(String storageId) {
+        evictFinished();
+        return Optional.ofNullable(progressByStorageId.get(storageId));
+    }
+
+    public void remove(String storageId) {
+        progressByStorageId.remove(storageId);
+    }
+
+    private void evictFinished() {
+        progressByStorageId.values().removeIf(progress -> progress.isFinishedLongerThan(retention));
+    }
+}
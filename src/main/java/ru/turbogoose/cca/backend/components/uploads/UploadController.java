@@ -0,0 +1,45 @@
+package ru.turbogoose.cca.backend.components.uploads;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+import ru.turbogoose.cca.backend.components.datasets.dto.DatasetResponseDto;
+import ru.turbogoose.cca.backend.components.uploads.dto.UploadStatusResponseDto;
+
+import java.io.InputStream;
+
+@RequiredArgsConstructor
+@RestController
+@CrossOrigin
+@RequestMapping("/api/datasets/uploads")
+public class UploadController {
+    private final UploadService uploadService;
+
+    @PostMapping(produces = MediaType.APPLICATION_JSON_VALUE)
+    public UploadStatusResponseDto initiateUpload(@RequestParam String filename) {
+        return uploadService.initiateUpload(filename);
+    }
+
+    @GetMapping(value = "/{datasetId}", produces = MediaType.APPLICATION_JSON_VALUE)
+    public UploadStatusResponseDto getUploadStatus(@PathVariable int datasetId) {
+        return uploadService.getUploadStatus(datasetId);
+    }
+
+    @PutMapping(value = "/{datasetId}/chunks/{chunkNum}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE,
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public UploadStatusResponseDto uploadChunk(@PathVariable int datasetId, @PathVariable int chunkNum,
+                                               InputStream body) {
+        return uploadService.uploadChunk(datasetId, chunkNum, body);
+    }
+
+    @PostMapping(value = "/{datasetId}/complete", produces = MediaType.APPLICATION_JSON_VALUE)
+    public DatasetResponseDto completeUpload(@PathVariable int datasetId,
+                                             @RequestParam(defaultValue = "0") int priority) {
+        return uploadService.completeUpload(datasetId, priority);
+    }
+
+    @DeleteMapping("/{datasetId}")
+    public void abortUpload(@PathVariable int datasetId) {
+        uploadService.abortUpload(datasetId);
+    }
+}
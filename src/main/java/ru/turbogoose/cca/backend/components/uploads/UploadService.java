@@ -0,0 +1,164 @@
+package ru.turbogoose.cca.backend.components.uploads;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.csv.CSVRecord;
+import org.springframework.stereotype.Service;
+import ru.turbogoose.cca.backend.common.exception.NotFoundException;
+import ru.turbogoose.cca.backend.common.util.Compression;
+import ru.turbogoose.cca.backend.common.util.KeyedLocks;
+import ru.turbogoose.cca.backend.components.datasets.Dataset;
+import ru.turbogoose.cca.backend.components.datasets.DatasetService;
+import ru.turbogoose.cca.backend.components.datasets.dto.DatasetResponseDto;
+import ru.turbogoose.cca.backend.components.storage.Storage;
+import ru.turbogoose.cca.backend.components.storage.filesystem.FileSystemTempCsvStorage;
+import ru.turbogoose.cca.backend.components.storage.filesystem.TempStorageJanitor;
+import ru.turbogoose.cca.backend.components.storage.info.StorageInfo;
+import ru.turbogoose.cca.backend.components.storage.info.StorageInfoHelper;
+import ru.turbogoose.cca.backend.components.storage.info.StorageMode;
+import ru.turbogoose.cca.backend.components.uploads.dto.UploadStatusResponseDto;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+
+import static ru.turbogoose.cca.backend.components.storage.info.StorageStatus.CREATED;
+import static ru.turbogoose.cca.backend.components.storage.info.StorageStatus.LOADING;
+
+/**
+ * Resumable upload of a dataset in numbered chunks. Chunks are appended to the secondary storage file as they arrive
+ * and the progress is persisted in {@link StorageInfo}, so a client only needs to resend chunks that were not
+ * acknowledged.
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+public class UploadService {
+    private final DatasetService datasetService;
+    private final FileSystemTempCsvStorage csvStorage;
+    private final Storage<CSVRecord, JsonNode> secondaryStorage;
+    private final StorageInfoHelper storageInfoHelper;
+    private final TempStorageJanitor storageJanitor;
+    private final KeyedLocks<Integer> uploadLocks = new KeyedLocks<>();
+
+    public UploadStatusResponseDto initiateUpload(String filename) {
+        storageJanitor.assertHasSpace();
+        Dataset dataset = datasetService.createDataset(filename);
+        String storageId = csvStorage.create();
+        StorageInfo uploadInfo = datasetService.attachStorage(dataset, storageId, StorageMode.SECONDARY);
+        storageInfoHelper.setUploadProgressAndSave(uploadInfo, 0, 0);
+        log.debug("[{}] chunked upload initiated", dataset.getId());
+        return composeStatus(dataset, uploadInfo);
+    }
+
+    public UploadStatusResponseDto getUploadStatus(int datasetId) {
+        Dataset dataset = datasetService.getDatasetByIdOrThrow(datasetId);
+        return composeStatus(dataset, getUploadInfoOrThrow(dataset));
+    }
+
+    public UploadStatusResponseDto uploadChunk(int datasetId, int chunkNum, InputStream in) {
+        uploadLocks.lock(datasetId);
+        try {
+            Dataset dataset = datasetService.getDatasetByIdOrThrow(datasetId);
+            StorageInfo uploadInfo = getUploadInfoOrThrow(dataset);
+            int expectedChunkNum = uploadInfo.getUploadedChunks();
+            if (chunkNum < expectedChunkNum) {
+                log.debug("[{}] chunk {} already uploaded", datasetId, chunkNum);
+                return composeStatus(dataset, uploadInfo);
+            }
+            if (chunkNum > expectedChunkNum) {
+                throw new IllegalArgumentException("Chunk %d expected, but chunk %d received"
+                        .formatted(expectedChunkNum, chunkNum));
+            }
+            storageJanitor.assertHasSpace();
+            long uploadedBytes = csvStorage.append(uploadInfo.getStorageId(), uploadInfo.getUploadedBytes(), in);
+            storageInfoHelper.setUploadProgressAndSave(uploadInfo, expectedChunkNum + 1, uploadedBytes);
+            log.debug("[{}] chunk {} uploaded ({} bytes in total)", datasetId, chunkNum, uploadedBytes);
+            return composeStatus(dataset, uploadInfo);
+        } finally {
+            uploadLocks.unlock(datasetId);
+        }
+    }
+
+    public DatasetResponseDto completeUpload(int datasetId, int priority) {
+        uploadLocks.lock(datasetId);
+        try {
+            Dataset dataset = datasetService.getDatasetByIdOrThrow(datasetId);
+            StorageInfo uploadInfo = getUploadInfoOrThrow(dataset);
+            Compression compression = detectCompression(uploadInfo.getStorageId());
+            if (compression != Compression.NONE || secondaryStorage != csvStorage) {
+                // the uploaded file is kept until the transfer is over, so the data takes twice as much space
+                try (TempStorageJanitor.Reservation ignored = storageJanitor.reserve(uploadInfo.getUploadedBytes(), compression)) {
+                    return transferUpload(dataset, uploadInfo, compression, priority);
+                }
+            }
+            long totalRows = csvStorage.seal(uploadInfo.getStorageId());
+            log.debug("[{}] chunked upload completed ({} rows)", datasetId, totalRows);
+            return datasetService.completeUpload(dataset, uploadInfo,
+                    totalRows, uploadInfo.getUploadedBytes(), null, priority);
+        } finally {
+            uploadLocks.unlock(datasetId);
+        }
+    }
+
+    private Compression detectCompression(String storageId) {
+        try (InputStream in = csvStorage.openRaw(storageId)) {
+            return Compression.detect(in);
+        } catch (IOException exc) {
+            throw new UncheckedIOException(exc);
+        }
+    }
+
+    /**
+     * Compressed data, as well as data for a secondary storage of other format, can not be read by the secondary
+     * storage directly, so it is transferred from the uploaded file into a new storage
+     */
+    private DatasetResponseDto transferUpload(Dataset dataset, StorageInfo uploadInfo,
+                                                      Compression compression, int priority) {
+        String uploadStorageId = uploadInfo.getStorageId();
+        long uploadedBytes = uploadInfo.getUploadedBytes();
+        try (InputStream in = csvStorage.openRaw(uploadStorageId)) {
+            // from now on the dataset is discarded together with the new storage if the ingestion fails
+            datasetService.detachStorage(dataset, uploadInfo);
+            DatasetResponseDto response = datasetService.ingestUpload(dataset, in, compression,
+                    uploadedBytes, priority);
+            log.debug("[{}] chunked upload transferred into secondary storage", dataset.getId());
+            return response;
+        } catch (IOException exc) {
+            throw new UncheckedIOException(exc);
+        } finally {
+            csvStorage.discard(uploadStorageId);
+        }
+    }
+
+    public void abortUpload(int datasetId) {
+        uploadLocks.lock(datasetId);
+        try {
+            Dataset dataset = datasetService.getDatasetByIdOrThrow(datasetId);
+            StorageInfo uploadInfo = getUploadInfoOrThrow(dataset);
+            csvStorage.discard(uploadInfo.getStorageId());
+            datasetService.discardUpload(dataset, uploadInfo);
+            log.debug("[{}] chunked upload aborted", datasetId);
+        } finally {
+            uploadLocks.unlock(datasetId);
+        }
+    }
+
+    private StorageInfo getUploadInfoOrThrow(Dataset dataset) {
+        return dataset.getStorages().stream()
+                .filter(info -> info.getMode() == StorageMode.SECONDARY && info.getUploadedChunks() != null)
+                .filter(info -> storageInfoHelper.hasAnyOfStatuses(info, CREATED, LOADING))
+                .findFirst()
+                .orElseThrow(() -> new NotFoundException("No upload in progress for dataset %s"
+                        .formatted(dataset.getId())));
+    }
+
+    private UploadStatusResponseDto composeStatus(Dataset dataset, StorageInfo uploadInfo) {
+        return UploadStatusResponseDto.builder()
+                .datasetId(dataset.getId())
+                .uploadedChunks(uploadInfo.getUploadedChunks())
+                .uploadedBytes(uploadInfo.getUploadedBytes())
+                .build();
+    }
+}
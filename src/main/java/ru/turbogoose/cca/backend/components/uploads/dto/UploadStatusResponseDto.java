@@ -0,0 +1,12 @@
+package ru.turbogoose.cca.backend.components.uploads.dto;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class UploadStatusResponseDto {
+    private Integer datasetId;
+    private Integer uploadedChunks;
+    private Long uploadedBytes;
+}
@@ -0,0 +1,3 @@
+ALTER TABLE storages
+    ADD COLUMN IF NOT EXISTS uploaded_chunks INT,
+    ADD COLUMN IF NOT EXISTS uploaded_bytes  BIGINT
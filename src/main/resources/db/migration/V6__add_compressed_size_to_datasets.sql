@@ -0,0 +1,2 @@
+ALTER TABLE datasets
+    ADD COLUMN IF NOT EXISTS compressed_size BIGINT
@@ -0,0 +1,80 @@
+package ru.turbogoose.cca.backend.common.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ByteBoundedLruCacheTest {
+    private final ByteBoundedLruCache<String, String> cache = new ByteBoundedLruCache<>("test", 10, String::length);
+
+    @Test
+    public void leastRecentlyUsedEntriesAreEvictedWhenOverCapacity() {
+        cache.put("a", "aaaa");
+        cache.put("b", "bbbb");
+        assertEquals("aaaa", cache.get("a"));
+        cache.put("c", "cccc");
+
+        assertNull(cache.get("b"));
+        assertEquals("aaaa", cache.get("a"));
+        assertEquals("cccc", cache.get("c"));
+        CacheStats stats = cache.getStats();
+        assertEquals(2, stats.getEntries());
+        assertEquals(8, stats.getBytes());
+        assertEquals(1, stats.getEvictions());
+        assertEquals(3, stats.getHits());
+        assertEquals(1, stats.getMisses());
+    }
+
+    @Test
+    public void oversizedValuesAreNotCached() {
+        cache.put("a", "aaaa");
+        cache.put("big", "x".repeat(11));
+        assertNull(cache.get("big"));
+        assertEquals("aaaa", cache.get("a"));
+    }
+
+    @Test
+    public void replacedAndInvalidatedEntriesReleaseTheirBytes() {
+        cache.put("s1:0", "aaaa");
+        cache.put("s1:0", "aa");
+        cache.put("s2:0", "bbbb");
+        assertEquals(6, cache.getStats().getBytes());
+
+        assertEquals(1, cache.invalidateIf(key -> key.startsWith("s1:")));
+        assertNull(cache.get("s1:0"));
+        assertEquals(4, cache.getStats().getBytes());
+    }
+
+    @Test
+    public void entriesExpireAfterTimeToLive() {
+        AtomicLong now = new AtomicLong();
+        ByteBoundedLruCache<String, String> expiring = new ByteBoundedLruCache<>(
+                "test", 10, String::length, Duration.ofNanos(100), now::get);
+        expiring.put("a", "aaaa");
+        now.set(50);
+        expiring.put("b", "bbbb");
+        assertEquals("aaaa", expiring.get("a"));
+
+        now.set(100);
+        assertNull(expiring.get("a"));
+        assertEquals("bbbb", expiring.get("b"));
+
+        // expired entries are dropped before live ones are evicted
+        now.set(120);
+        expiring.put("c", "cccc");
+        expiring.put("d", "dd");
+        assertEquals("bbbb", expiring.get("b"));
+        CacheStats stats = expiring.getStats();
+        assertEquals(1, stats.getExpirations());
+        assertEquals(0, stats.getEvictions());
+        assertEquals(10, stats.getBytes());
+
+        now.set(150);
+        assertNull(expiring.get("b"));
+        assertEquals(2, expiring.getStats().getExpirations());
+        assertEquals(6, expiring.getStats().getBytes());
+    }
+}
@@ -0,0 +1,42 @@
+package ru.turbogoose.cca.backend.common.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JsonRowWriterTest {
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void rowsAreWrittenAsSeparateObjects() throws IOException {
+        JsonRowWriter writer = new JsonRowWriter(List.of("name", "comment \"quoted\"", "ключ"), "tbid");
+
+        ObjectNode first = (ObjectNode) objectMapper.readTree(writer.write(new String[]{"a", "line\nbreak", "значение"}, 1));
+        assertEquals("a", first.get("name").asText());
+        assertEquals("line\nbreak", first.get("comment \"quoted\"").asText());
+        assertEquals("значение", first.get("ключ").asText());
+        assertEquals(1, first.get("tbid").asLong());
+
+        byte[] second = writer.write(new String[]{"b"}, 2);
+        assertEquals("{\"name\":\"b\",\"tbid\":2}", new String(second));
+    }
+
+    @Test
+    public void rowNumberIsOptional() throws IOException {
+        JsonRowWriter writer = new JsonRowWriter(List.of("a", "b"), null);
+        writer.write(new String[]{"1", "2"}, 1);
+        assertEquals("{\"a\":\"3\",\"b\":\"4\"}", new String(writer.write(new String[]{"3", "4", "extra"}, 2)));
+    }
+
+    @Test
+    public void keyFieldIsAppendedToEveryRow() throws IOException {
+        JsonRowWriter writer = new JsonRowWriter(List.of("a"), "tbid", "dskey", "k1");
+        writer.write(new String[]{"1"}, 1);
+        assertEquals("{\"a\":\"2\",\"tbid\":2,\"dskey\":\"k1\"}", new String(writer.write(new String[]{"2"}, 2)));
+    }
+}
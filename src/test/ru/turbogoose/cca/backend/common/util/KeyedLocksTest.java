@@ -0,0 +1,63 @@
+package ru.turbogoose.cca.backend.common.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class KeyedLocksTest {
+
+    @Test
+    public void holdersOfSameKeyAreExclusiveAndLocksAreDroppedWhenReleased() throws Exception {
+        KeyedLocks<Integer> locks = new KeyedLocks<>();
+        AtomicInteger[] inside = {new AtomicInteger(), new AtomicInteger(), new AtomicInteger()};
+        AtomicInteger overlaps = new AtomicInteger();
+        List<Future<?>> tasks = new ArrayList<>();
+        try (ExecutorService executor = Executors.newFixedThreadPool(8)) {
+            for (int i = 0; i < 8; i++) {
+                tasks.add(executor.submit(() -> {
+                    for (int j = 0; j < 2000; j++) {
+                        int key = j % inside.length;
+                        locks.lock(key);
+                        try {
+                            if (inside[key].incrementAndGet() > 1) {
+                                overlaps.incrementAndGet();
+                            }
+                            inside[key].decrementAndGet();
+                        } finally {
+                            locks.unlock(key);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        }
+        assertEquals(0, overlaps.get());
+        assertEquals(0, locks.size());
+    }
+
+    @Test
+    public void unlockByAnotherThreadFails() throws Exception {
+        KeyedLocks<Integer> locks = new KeyedLocks<>();
+        locks.lock(1);
+        locks.lock(1);
+        try (ExecutorService executor = Executors.newSingleThreadExecutor()) {
+            Future<?> foreign = executor.submit(() -> locks.unlock(1));
+            assertInstanceOf(IllegalMonitorStateException.class,
+                    assertThrows(Exception.class, foreign::get).getCause());
+        }
+        locks.unlock(1);
+        assertEquals(1, locks.size());
+        locks.unlock(1);
+        assertEquals(0, locks.size());
+        assertThrows(IllegalMonitorStateException.class, () -> locks.unlock(1));
+    }
+}
@@ -0,0 +1,93 @@
+package ru.turbogoose.cca.backend.common.util;
+
+import org.apache.commons.csv.CSVRecord;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MappedFileReaderTest {
+    @TempDir
+    private Path tempDir;
+    private Path file;
+
+    @BeforeEach
+    public void setUp() {
+        file = tempDir.resolve("mmap-test.csv");
+    }
+
+    private String readAll(Reader reader) throws IOException {
+        try (reader) {
+            StringWriter out = new StringWriter();
+            reader.transferTo(out);
+            return out.toString();
+        }
+    }
+
+    @Test
+    public void charactersSplitBetweenWindowsAreDecoded() throws IOException {
+        String text = "ascii, кириллица, 漢字, emoji 😀 ".repeat(50);
+        Files.writeString(file, text, StandardCharsets.UTF_8);
+        for (int windowSize : new int[]{4, 5, 7, 13, 1024}) {
+            assertEquals(text, readAll(new MappedFileReader(file, 0, windowSize)));
+        }
+    }
+
+    @Test
+    public void readingStartsFromPosition() throws IOException {
+        Files.writeString(file, "header\nдата", StandardCharsets.UTF_8);
+        assertEquals("дата", readAll(new MappedFileReader(file, 7, 5)));
+        assertEquals("", readAll(new MappedFileReader(file, Files.size(file), 5)));
+    }
+
+    /**
+     * Excluded from regular test runs, run with {@code -Dexcluded.test.groups= -Dgroups=benchmark}
+     */
+    @Test
+    @Tag("benchmark")
+    public void runBenchmarks() throws IOException {
+        int rows = 500_000;
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("id,name,description,amount\n");
+            for (int i = 0; i < rows; i++) {
+                writer.write("%d,name %d,\"some longer description, with a comma\",%d.%02d\n"
+                        .formatted(i, i, i * 3, i % 100));
+            }
+        }
+        System.out.printf("Benchmark file: %d rows, %d MB%n", rows, Files.size(file) / (1024 * 1024));
+        for (int run = 0; run < 3; run++) {
+            for (FileReadMode mode : FileReadMode.values()) {
+                long start = System.nanoTime();
+                long count;
+                try (Stream<CSVRecord> records = CsvUtil.readCsvStreamFromFile(file.toString(), mode)) {
+                    count = records.count();
+                }
+                long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+                assertEquals(rows, count);
+                System.out.printf("%d) %s full scan: %d ms (%.0f rows/s)%n",
+                        run, mode, elapsedMs, rows * 1000.0 / Math.max(elapsedMs, 1));
+
+                start = System.nanoTime();
+                try (Reader reader = mode.open(file, 0)) {
+                    char[] buffer = new char[8192];
+                    while (reader.read(buffer) != -1) {
+                        // decoding only
+                    }
+                }
+                elapsedMs = (System.nanoTime() - start) / 1_000_000;
+                System.out.printf("%d) %s decoding without parsing: %d ms%n", run, mode, elapsedMs);
+            }
+        }
+    }
+}
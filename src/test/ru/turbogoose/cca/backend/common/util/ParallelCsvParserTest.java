@@ -0,0 +1,80 @@
+package ru.turbogoose.cca.backend.common.util;
+
+import org.apache.commons.csv.CSVRecord;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ParallelCsvParserTest {
+
+    private String generateCsv(int rows) {
+        return "id,text,num\n" + IntStream.range(0, rows)
+                .mapToObj(i -> i % 7 == 0
+                        ? "%d,\"quoted, with \"\"escapes\"\"\nand line break\",%d\n".formatted(i, i * 10)
+                        : "%d,plain value %d,%d\n".formatted(i, i, i * 10))
+                .collect(Collectors.joining());
+    }
+
+    private List<Map<String, String>> parse(Stream<CSVRecord> stream) {
+        try (stream) {
+            return stream.map(CSVRecord::toMap).toList();
+        }
+    }
+
+    private List<Map<String, String>> parseSequentially(String csv) {
+        return parse(CsvUtil.transferToCsvStream(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    private List<Map<String, String>> parseInParallel(String csv, int parallelism, int chunkSize) {
+        return parse(ParallelCsvParser.parse(
+                new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)), parallelism, chunkSize));
+    }
+
+    @Test
+    public void parallelParsingPreservesOrderAndContent() {
+        String csv = generateCsv(1000);
+        assertEquals(parseSequentially(csv), parseInParallel(csv, 4, 256));
+    }
+
+    @Test
+    public void recordLargerThanChunkIsNotSplit() {
+        String csv = "id,text\n1,\"" + "long\nvalue ".repeat(100) + "\"\n2,short\n";
+        assertEquals(parseSequentially(csv), parseInParallel(csv, 2, 16));
+    }
+
+    @Test
+    public void inputWithoutTrailingLineBreak() {
+        String csv = "id,text\n1,a\n\n2,b";
+        assertEquals(parseSequentially(csv), parseInParallel(csv, 3, 4));
+    }
+
+    @Test
+    public void strayQuotesInsideUnquotedValuesAreLiteral() {
+        String csv = "id,size,text\n" + IntStream.range(0, 100)
+                .mapToObj(i -> switch (i % 4) {
+                    case 0 -> "%d,5\",screen %d\"\n".formatted(i, i);
+                    case 1 -> "%d,1,\"multi\nline \"\"quoted\"\"\"\r\n".formatted(i);
+                    case 2 -> "%d,a\"b\"c,\"\"\n".formatted(i);
+                    default -> "%d,x, \"spaced\n".formatted(i);
+                })
+                .collect(Collectors.joining());
+        List<Map<String, String>> expected = parseSequentially(csv);
+        assertEquals(100, expected.size());
+        for (int chunkSize : new int[]{8, 64, 1000}) {
+            assertEquals(expected, parseInParallel(csv, 3, chunkSize));
+        }
+    }
+
+    @Test
+    public void headerOnlyInput() {
+        assertEquals(List.of(), parseInParallel("id,text\n", 2, 4));
+    }
+}
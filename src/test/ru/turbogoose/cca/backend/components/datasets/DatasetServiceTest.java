@@ -0,0 +1,137 @@
+package ru.turbogoose.cca.backend.components.datasets;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.apache.commons.csv.CSVRecord;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.modelmapper.ModelMapper;
+import org.springframework.test.util.ReflectionTestUtils;
+import ru.turbogoose.cca.backend.common.util.Compression;
+import ru.turbogoose.cca.backend.components.annotations.AnnotationService;
+import ru.turbogoose.cca.backend.components.migrations.MigrationScheduler;
+import ru.turbogoose.cca.backend.components.storage.Searcher;
+import ru.turbogoose.cca.backend.components.storage.Storage;
+import ru.turbogoose.cca.backend.components.storage.cache.PageCache;
+import ru.turbogoose.cca.backend.components.storage.cache.SearchCache;
+import ru.turbogoose.cca.backend.components.storage.exception.StorageException;
+import ru.turbogoose.cca.backend.components.storage.filesystem.TempStorageJanitor;
+import ru.turbogoose.cca.backend.components.storage.info.StorageInfo;
+import ru.turbogoose.cca.backend.components.storage.info.StorageInfoHelper;
+import ru.turbogoose.cca.backend.components.storage.info.StorageInfoRepository;
+import ru.turbogoose.cca.backend.components.storage.progress.IngestionProgressTracker;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class DatasetServiceTest {
+    private DatasetRepository datasetRepository;
+    private MigrationScheduler migrationScheduler;
+    private Storage<JsonNode, JsonNode> primaryStorage;
+    private Storage<CSVRecord, JsonNode> secondaryStorage;
+    private final List<String> failedStorages = new CopyOnWriteArrayList<>();
+    private DatasetService service;
+
+    /**
+     * Storage consuming the stream the way real storages do: any read error fails the filling
+     */
+    private <T> void fillLikeStorage(Storage<T, JsonNode> storage) {
+        doAnswer(invocation -> {
+            String storageId = invocation.getArgument(0);
+            try (Stream<T> in = invocation.getArgument(1)) {
+                in.forEach(item -> {
+                });
+            } catch (Exception exc) {
+                failedStorages.add(storageId);
+                throw new StorageException("Failed to fill the storage", "Failed to fill " + storageId, exc);
+            }
+            return null;
+        }).when(storage).fill(anyString(), any());
+    }
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        datasetRepository = mock(DatasetRepository.class);
+        migrationScheduler = new MigrationScheduler(1, false);
+        primaryStorage = mock(Storage.class);
+        secondaryStorage = mock(Storage.class);
+        when(primaryStorage.create()).thenReturn("primary");
+        when(secondaryStorage.create()).thenReturn("secondary");
+        fillLikeStorage(primaryStorage);
+        fillLikeStorage(secondaryStorage);
+
+        StorageInfoHelper storageInfoHelper = mock(StorageInfoHelper.class);
+        when(storageInfoHelper.getStorageInfoRepository()).thenReturn(mock(StorageInfoRepository.class));
+        when(storageInfoHelper.getInfoByStorageIdOrThrow(anyString())).thenAnswer(invocation ->
+                StorageInfo.builder().storageId(invocation.getArgument(0)).build());
+
+        service = new DatasetService(new ModelMapper(), datasetRepository, mock(AnnotationService.class),
+                mock(Searcher.class), primaryStorage, secondaryStorage, storageInfoHelper, migrationScheduler,
+                new IngestionProgressTracker(), mock(PageCache.class), mock(SearchCache.class),
+                mock(TempStorageJanitor.class));
+        ReflectionTestUtils.setField(service, "singlePassIngestion", true);
+        ReflectionTestUtils.setField(service, "singlePassBufferSize", 10);
+        ReflectionTestUtils.setField(service, "singlePassMinSize", 0L);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        migrationScheduler.shutdown();
+    }
+
+    @Test
+    public void mislabelledCompressedUploadIsDiscarded() {
+        Dataset dataset = new Dataset();
+        dataset.setId(1);
+        byte[] csv = "id,text\n1,a\n".getBytes(StandardCharsets.UTF_8);
+
+        StorageException exc = assertTimeoutPreemptively(Duration.ofSeconds(10), () -> assertThrows(
+                StorageException.class, () -> service.ingestUpload(dataset, new ByteArrayInputStream(csv),
+                        Compression.GZIP, csv.length, 0)));
+
+        assertNotNull(exc.getCause());
+        assertTrue(failedStorages.contains("secondary"));
+        // the primary ingestion is failed too instead of waiting for rows forever, and its slot is released
+        assertTrue(failedStorages.contains("primary"));
+        assertTrue(migrationScheduler.tryReserve());
+        verify(datasetRepository).delete(dataset);
+    }
+
+    @Test
+    public void smallUploadIsQueuedToCreatePrimaryStorageForKnownRows() {
+        ReflectionTestUtils.setField(service, "singlePassMinSize", 1024L);
+        Dataset dataset = new Dataset();
+        dataset.setId(1);
+        byte[] csv = "id,text\n1,a\n2,b\n".getBytes(StandardCharsets.UTF_8);
+
+        service.ingestUpload(dataset, new ByteArrayInputStream(csv), Compression.NONE, csv.length, 0);
+
+        verify(primaryStorage, timeout(5000)).create(2L);
+        verify(primaryStorage, never()).create();
+    }
+
+    @Test
+    public void filledSecondaryStorageIsDeletedWithDiscardedUpload() {
+        when(secondaryStorage.isStorageReady("secondary")).thenReturn(true);
+        when(datasetRepository.save(any())).thenThrow(new IllegalStateException("database is down"));
+        Dataset dataset = new Dataset();
+        dataset.setId(1);
+        byte[] csv = "id,text\n1,a\n".getBytes(StandardCharsets.UTF_8);
+
+        assertTimeoutPreemptively(Duration.ofSeconds(10), () -> assertThrows(IllegalStateException.class,
+                () -> service.ingestUpload(dataset, new ByteArrayInputStream(csv), Compression.NONE, csv.length, 0)));
+
+        verify(secondaryStorage).delete("secondary");
+        verify(datasetRepository).delete(dataset);
+    }
+}
@@ -0,0 +1,102 @@
+package ru.turbogoose.cca.backend.components.migrations;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MigrationSchedulerTest {
+
+    @Test
+    public void queuedMigrationsRunByPriorityThenSize() throws InterruptedException {
+        MigrationScheduler scheduler = new MigrationScheduler(1, false);
+        CountDownLatch blocker = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(4);
+        List<Integer> order = new CopyOnWriteArrayList<>();
+        try {
+            scheduler.schedule(0, 0, 0, () -> {
+                awaitQuietly(blocker);
+                order.add(0);
+                done.countDown();
+            });
+            scheduler.schedule(1, 300, 0, () -> { order.add(1); done.countDown(); });
+            scheduler.schedule(2, 100, 0, () -> { order.add(2); done.countDown(); });
+            scheduler.schedule(3, 900, 5, () -> { order.add(3); done.countDown(); });
+
+            assertFalse(scheduler.tryReserve());
+            assertEquals(Optional.of(1), scheduler.getQueuePosition(3));
+            assertEquals(Optional.of(2), scheduler.getQueuePosition(2));
+            assertEquals(Optional.of(3), scheduler.getQueuePosition(1));
+            assertEquals(Optional.empty(), scheduler.getQueuePosition(0));
+
+            blocker.countDown();
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertEquals(List.of(0, 3, 2, 1), order);
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void reservedSlotIsReturnedAfterRun() throws Exception {
+        MigrationScheduler scheduler = new MigrationScheduler(1, true);
+        try {
+            assertTrue(scheduler.tryReserve());
+            assertFalse(scheduler.tryReserve());
+            scheduler.runReserved(0, () -> {}).get(5, TimeUnit.SECONDS);
+            assertTrue(scheduler.tryReserve());
+            scheduler.release();
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    @Test
+    public void blockingMigrationsRunOnBoundedVirtualThreads() throws InterruptedException {
+        MigrationScheduler scheduler = new MigrationScheduler(4, true);
+        int migrations = 50;
+        CountDownLatch done = new CountDownLatch(migrations);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        List<Thread> threads = new CopyOnWriteArrayList<>();
+        try {
+            for (int i = 0; i < migrations; i++) {
+                scheduler.schedule(i, 0, 0, () -> {
+                    threads.add(Thread.currentThread());
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    try {
+                        // migrations mostly wait on storage I/O
+                        Thread.sleep(10);
+                    } catch (InterruptedException exc) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        running.decrementAndGet();
+                        done.countDown();
+                    }
+                });
+            }
+
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            assertEquals(4, maxRunning.get());
+            assertEquals(migrations, threads.size());
+            assertTrue(threads.stream().allMatch(Thread::isVirtual));
+            assertTrue(threads.stream().allMatch(thread -> thread.getName().startsWith("migration-")));
+        } finally {
+            scheduler.shutdown();
+        }
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package ru.turbogoose.cca.backend.components.storage;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import ru.turbogoose.cca.backend.components.storage.filesystem.FileSystemTempBinaryStorage;
+import ru.turbogoose.cca.backend.components.storage.filesystem.FileSystemTempCsvStorage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.*;
+
+class SecondaryStorageRouterTest {
+
+    @Test
+    public void storagesAreServedByFormatOfTheirIds() {
+        FileSystemTempCsvStorage csvStorage = mock(FileSystemTempCsvStorage.class);
+        FileSystemTempBinaryStorage binaryStorage = mock(FileSystemTempBinaryStorage.class);
+        when(binaryStorage.owns(anyString())).thenAnswer(invocation ->
+                invocation.<String>getArgument(0).endsWith(".bin"));
+        when(binaryStorage.create()).thenReturn("/tmp/new.bin");
+        SecondaryStorageRouter router = new SecondaryStorageRouter(csvStorage, binaryStorage);
+        ReflectionTestUtils.setField(router, "format", SecondaryStorageRouter.Format.BINARY);
+
+        assertEquals("/tmp/new.bin", router.create());
+        router.delete("/tmp/old.tmp");
+        router.getAllRows("/tmp/old.tmp");
+        router.delete("/tmp/new.bin");
+
+        verify(csvStorage).delete("/tmp/old.tmp");
+        verify(csvStorage).getAllRows("/tmp/old.tmp");
+        verify(binaryStorage).delete("/tmp/new.bin");
+        verify(csvStorage, never()).create();
+    }
+}
@@ -0,0 +1,223 @@
+package ru.turbogoose.cca.backend.components.storage.elastic;
+
+import co.elastic.clients.elasticsearch.core.BulkRequest;
+import co.elastic.clients.elasticsearch.core.BulkResponse;
+import co.elastic.clients.elasticsearch.core.bulk.BulkOperation;
+import co.elastic.clients.elasticsearch.core.bulk.BulkResponseItem;
+import co.elastic.clients.elasticsearch.core.bulk.OperationType;
+import org.junit.jupiter.api.Test;
+import ru.turbogoose.cca.backend.components.storage.exception.StorageException;
+import ru.turbogoose.cca.backend.components.storage.progress.IngestionProgress;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdaptiveBulkIngesterTest {
+    private static final int ROWS = 500;
+    private static final IndexLayout LAYOUT = IndexLayout.dedicated("test");
+
+    private static AdaptiveBulkIngester.Settings settings(int maxOperations, long maxBytes, int maxRetries) {
+        return new AdaptiveBulkIngester.Settings(maxOperations, maxBytes, Duration.ofMinutes(1), 4,
+                Duration.ofMinutes(1), maxRetries, Duration.ofMillis(1), Duration.ofMillis(5));
+    }
+
+    private static byte[] row(long rowNum) {
+        return "{\"value\":\"row %d\"}".formatted(rowNum).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static BulkResponseItem item(BulkOperation op, int status, String errorType) {
+        return BulkResponseItem.of(i -> {
+            i.operationType(OperationType.Index).index("test").id(op.index().id()).status(status);
+            if (errorType != null) {
+                i.error(e -> e.type(errorType).reason(errorType + " for row " + op.index().id()));
+            }
+            return i;
+        });
+    }
+
+    /**
+     * Fake cluster answering asynchronously with the status chosen for every row
+     */
+    private static Function<BulkRequest, CompletableFuture<BulkResponse>> cluster(
+            Function<BulkOperation, BulkResponseItem> answer, List<BulkRequest> requests) {
+        return request -> {
+            synchronized (requests) {
+                requests.add(request);
+            }
+            return CompletableFuture.supplyAsync(() -> BulkResponse.of(b -> b
+                    .took(1)
+                    .errors(false)
+                    .items(request.operations().stream().map(answer).toList())));
+        };
+    }
+
+    @Test
+    public void rejectedRowsAreRetriedUntilIndexed() {
+        Map<String, AtomicInteger> attempts = new ConcurrentHashMap<>();
+        List<BulkRequest> requests = new ArrayList<>();
+        IngestionProgress progress = new IngestionProgress();
+        AdaptiveBulkIngester ingester = new AdaptiveBulkIngester(LAYOUT, settings(50, Long.MAX_VALUE, 5),
+                cluster(op -> attempts.computeIfAbsent(op.index().id(), id -> new AtomicInteger()).incrementAndGet() < 3
+                        && Long.parseLong(op.index().id()) % 7 == 0
+                        ? item(op, 429, "es_rejected_execution_exception")
+                        : item(op, 201, null), requests),
+                new BulkRequestBudget(4), progress);
+
+        for (long rowNum = 1; rowNum <= ROWS; rowNum++) {
+            ingester.add(rowNum, row(rowNum));
+        }
+        ingester.awaitIndexed();
+
+        assertEquals(ROWS, progress.getRowsAcknowledged());
+        assertEquals(ROWS, attempts.size());
+        assertEquals(3, attempts.get("7").get());
+        assertEquals(1, attempts.get("8").get());
+    }
+
+    @Test
+    public void requestsAreCutBySize() {
+        List<BulkRequest> requests = new ArrayList<>();
+        long rowBytes = row(100).length;
+        AdaptiveBulkIngester ingester = new AdaptiveBulkIngester(LAYOUT, settings(1000, rowBytes * 10, 0),
+                cluster(op -> item(op, 201, null), requests), new BulkRequestBudget(4), new IngestionProgress());
+
+        for (long rowNum = 100; rowNum < 200; rowNum++) {
+            ingester.add(rowNum, row(rowNum));
+        }
+        ingester.awaitIndexed();
+
+        assertEquals(10, requests.size());
+        requests.forEach(request -> assertEquals(10, request.operations().size()));
+    }
+
+    @Test
+    public void concurrencyGrowsWhileFastAndHalvesOnRejections() {
+        List<BulkRequest> requests = new ArrayList<>();
+        AdaptiveBulkIngester ingester = new AdaptiveBulkIngester(LAYOUT, settings(10, Long.MAX_VALUE, 3),
+                cluster(op -> item(op, 201, null), requests), new BulkRequestBudget(4), new IngestionProgress());
+        for (long rowNum = 1; rowNum <= ROWS; rowNum++) {
+            ingester.add(rowNum, row(rowNum));
+        }
+        ingester.awaitIndexed();
+        assertEquals(4, ingester.getConcurrencyLimit());
+
+        AimdConcurrencyLimiter limiter = new AimdConcurrencyLimiter(8, Duration.ofSeconds(1).toNanos());
+        for (int i = 0; i < 100; i++) {
+            limiter.acquire();
+            limiter.onSuccess(Duration.ofMillis(10).toNanos());
+        }
+        assertEquals(8, limiter.getLimit());
+        limiter.acquire();
+        limiter.onOverload();
+        assertEquals(4, limiter.getLimit());
+        limiter.acquire();
+        limiter.onSuccess(Duration.ofSeconds(5).toNanos());
+        assertEquals(4, limiter.getLimit());
+        for (int i = 0; i < 5; i++) {
+            limiter.acquire();
+            limiter.onOverload();
+        }
+        assertEquals(1, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void rowsOfSharedStorageAreRoutedByDatasetKey() {
+        List<BulkRequest> requests = new ArrayList<>();
+        IndexLayout layout = IndexLayout.of("pool:abc");
+        AdaptiveBulkIngester ingester = new AdaptiveBulkIngester(layout, settings(10, Long.MAX_VALUE, 0),
+                cluster(op -> item(op, 201, null), requests), new BulkRequestBudget(4), new IngestionProgress());
+        for (long rowNum = 1; rowNum <= 25; rowNum++) {
+            ingester.add(rowNum, row(rowNum));
+        }
+        ingester.awaitIndexed();
+
+        List<BulkOperation> operations = requests.stream().flatMap(request -> request.operations().stream()).toList();
+        assertEquals(25, operations.size());
+        operations.forEach(op -> {
+            assertEquals("pool", op.index().index());
+            assertEquals("abc", op.index().routing());
+            assertTrue(op.index().id().startsWith("abc_"));
+        });
+        assertEquals("pool:abc", layout.storageId());
+        assertFalse(IndexLayout.of("3f0c2d8e-index").isShared());
+    }
+
+    @Test
+    public void abortWaitsForRequestsInFlightAndSendsNothingElse() {
+        AtomicInteger sent = new AtomicInteger();
+        AtomicInteger completed = new AtomicInteger();
+        AdaptiveBulkIngester ingester = new AdaptiveBulkIngester(LAYOUT, settings(10, Long.MAX_VALUE, 3),
+                request -> {
+                    sent.incrementAndGet();
+                    return CompletableFuture.supplyAsync(() -> {
+                        sleepQuietly(200);
+                        completed.incrementAndGet();
+                        return BulkResponse.of(b -> b
+                                .took(1)
+                                .errors(false)
+                                .items(request.operations().stream().map(op -> item(op, 201, null)).toList()));
+                    });
+                },
+                new BulkRequestBudget(4), new IngestionProgress());
+        for (long rowNum = 1; rowNum <= 15; rowNum++) {
+            ingester.add(rowNum, row(rowNum));
+        }
+        ingester.abort();
+
+        assertEquals(1, sent.get());
+        assertEquals(1, completed.get());
+        sleepQuietly(50);
+        assertEquals(1, sent.get());
+    }
+
+    @Test
+    public void permanentlyFailedRowsFailTheIngestion() {
+        AdaptiveBulkIngester ingester = new AdaptiveBulkIngester(LAYOUT, settings(10, Long.MAX_VALUE, 3),
+                cluster(op -> op.index().id().equals("42")
+                        ? item(op, 400, "mapper_parsing_exception")
+                        : item(op, 201, null), new ArrayList<>()),
+                new BulkRequestBudget(4), new IngestionProgress());
+
+        StorageException exc = assertThrows(StorageException.class, () -> {
+            for (long rowNum = 1; rowNum <= ROWS; rowNum++) {
+                ingester.add(rowNum, row(rowNum));
+            }
+            ingester.awaitIndexed();
+        });
+        assertTrue(exc.getMessage().contains("row 42"));
+    }
+
+    @Test
+    public void rowsRejectedTooManyTimesFailTheIngestion() {
+        AtomicInteger requests = new AtomicInteger();
+        AdaptiveBulkIngester ingester = new AdaptiveBulkIngester(LAYOUT, settings(10, Long.MAX_VALUE, 2),
+                request -> {
+                    requests.incrementAndGet();
+                    return CompletableFuture.failedFuture(new IllegalStateException("connection reset"));
+                },
+                new BulkRequestBudget(4), new IngestionProgress());
+
+        ingester.add(1, row(1));
+        StorageException exc = assertThrows(StorageException.class, ingester::awaitIndexed);
+        assertTrue(exc.getMessage().contains("gave up after 2 retries"));
+        assertEquals(3, requests.get());
+    }
+}
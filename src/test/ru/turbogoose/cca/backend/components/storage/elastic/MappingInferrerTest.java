@@ -0,0 +1,55 @@
+package ru.turbogoose.cca.backend.components.storage.elastic;
+
+import org.junit.jupiter.api.Test;
+import ru.turbogoose.cca.backend.components.storage.elastic.MappingInferrer.FieldType;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MappingInferrerTest {
+
+    private Map<String, FieldType> infer(Map<String, List<String>> columns) {
+        MappingInferrer inferrer = new MappingInferrer(32);
+        columns.forEach((field, values) -> values.forEach(value -> inferrer.observe(field, value)));
+        return inferrer.inferTypes();
+    }
+
+    @Test
+    public void inferColumnTypes() {
+        Map<String, List<String>> columns = new LinkedHashMap<>();
+        columns.put("id", List.of("1", "-20", "300"));
+        columns.put("price", List.of("1.5", "2", ".25", "1e3"));
+        columns.put("created", List.of("2024-01-01", "2024-02-03T10:15:30", "2024-03-04 12:00:00"));
+        columns.put("category", List.of("books", "toys", "food-and-drinks"));
+        columns.put("comment", List.of("a long free text comment", "short"));
+
+        Map<String, FieldType> expected = new LinkedHashMap<>();
+        expected.put("id", FieldType.LONG);
+        expected.put("price", FieldType.DOUBLE);
+        expected.put("created", FieldType.DATE);
+        expected.put("category", FieldType.KEYWORD);
+        expected.put("comment", FieldType.TEXT);
+        assertEquals(expected, infer(columns));
+    }
+
+    @Test
+    public void emptyValuesDoNotAffectInference() {
+        Map<String, List<String>> columns = new LinkedHashMap<>();
+        columns.put("id", List.of("", "2", ""));
+        columns.put("empty", List.of("", ""));
+
+        Map<String, FieldType> expected = new LinkedHashMap<>();
+        expected.put("id", FieldType.LONG);
+        expected.put("empty", FieldType.TEXT);
+        assertEquals(expected, infer(columns));
+    }
+
+    @Test
+    public void longTokensAreText() {
+        String token = "x".repeat(33);
+        assertEquals(Map.of("token", FieldType.TEXT), infer(Map.of("token", List.of(token))));
+    }
+}
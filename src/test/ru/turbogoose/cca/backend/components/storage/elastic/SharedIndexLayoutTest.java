@@ -0,0 +1,227 @@
+package ru.turbogoose.cca.backend.components.storage.elastic;
+
+import co.elastic.clients.elasticsearch.ElasticsearchAsyncClient;
+import co.elastic.clients.elasticsearch.ElasticsearchClient;
+import co.elastic.clients.elasticsearch._types.mapping.Property;
+import co.elastic.clients.elasticsearch._types.query_dsl.BoolQuery;
+import co.elastic.clients.elasticsearch._types.query_dsl.Query;
+import co.elastic.clients.elasticsearch.core.DeleteByQueryRequest;
+import co.elastic.clients.elasticsearch.core.MgetRequest;
+import co.elastic.clients.elasticsearch.core.MgetResponse;
+import co.elastic.clients.elasticsearch.core.SearchRequest;
+import co.elastic.clients.elasticsearch.core.SearchResponse;
+import co.elastic.clients.elasticsearch.core.search.Hit;
+import co.elastic.clients.elasticsearch.indices.*;
+import co.elastic.clients.elasticsearch.indices.get_mapping.IndexMappingRecord;
+import co.elastic.clients.transport.endpoints.BooleanResponse;
+import co.elastic.clients.util.ObjectBuilder;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+import ru.turbogoose.cca.backend.components.storage.SearchCursor;
+import ru.turbogoose.cca.backend.components.storage.info.StorageInfo;
+import ru.turbogoose.cca.backend.components.storage.info.StorageInfoHelper;
+import ru.turbogoose.cca.backend.components.storage.info.StorageInfoRepository;
+import ru.turbogoose.cca.backend.components.storage.info.StorageStatus;
+import ru.turbogoose.cca.backend.components.storage.progress.IngestionProgressTracker;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class SharedIndexLayoutTest {
+    private static final String STORAGE_ID = "pool:key";
+
+    private ElasticsearchClient esClient;
+    private ElasticsearchAsyncClient esAsyncClient;
+    private ElasticsearchIndicesClient indicesClient;
+    private ElasticsearchService service;
+    private Set<String> existingIndices;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        esClient = mock(ElasticsearchClient.class);
+        indicesClient = mock(ElasticsearchIndicesClient.class);
+        when(esClient.indices()).thenReturn(indicesClient);
+        existingIndices = new HashSet<>(Set.of("pool"));
+        when(indicesClient.exists(any(Function.class))).thenAnswer(invocation -> new BooleanResponse(
+                existingIndices.containsAll(ExistsRequest.of(invocation.getArgument(0)).index())));
+
+        StorageInfoRepository repository = mock(StorageInfoRepository.class);
+        when(repository.getByStorageId(anyString())).thenReturn(Optional.of(StorageInfo.builder()
+                .status(StorageStatus.READY)
+                .build()));
+        esAsyncClient = mock(ElasticsearchAsyncClient.class);
+        service = new ElasticsearchService(esClient, esAsyncClient,
+                new StorageInfoHelper(repository), new IngestionProgressTracker(), new BulkRequestBudget(1));
+        ReflectionTestUtils.setField(service, "queryTimeout", "1m");
+        ReflectionTestUtils.setField(service, "cursorKeepAlive", "1m");
+        ReflectionTestUtils.setField(service, "numberOfShards", 1);
+        ReflectionTestUtils.setField(service, "refreshInterval", "1s");
+        ReflectionTestUtils.setField(service, "sharedIndexEnabled", true);
+        ReflectionTestUtils.setField(service, "sharedIndexName", "pool");
+        ReflectionTestUtils.setField(service, "sharedIndexMaxRows", 100L);
+        ReflectionTestUtils.setField(service, "sharedIndexMaxFields", 10);
+        ReflectionTestUtils.setField(service, "sharedIndexFieldHeadroom", 3);
+    }
+
+    private static void assertFilteredByDatasetKey(Query query) {
+        assertTrue(query.isBool());
+        BoolQuery bool = query.bool();
+        assertEquals(1, bool.must().size());
+        assertEquals("dskey", bool.filter().getFirst().term().field());
+        assertEquals("key", bool.filter().getFirst().term().value().stringValue());
+    }
+
+    @Test
+    public void layoutIsEncodedInStorageId() {
+        IndexLayout shared = IndexLayout.of(STORAGE_ID);
+        assertTrue(shared.isShared());
+        assertEquals("pool", shared.index());
+        assertEquals("key", shared.routing());
+        assertEquals("key_42", shared.documentId(42));
+        assertEquals(STORAGE_ID, shared.storageId());
+
+        IndexLayout dedicated = IndexLayout.of("3f0c2d8e-index");
+        assertFalse(dedicated.isShared());
+        assertEquals("3f0c2d8e-index", dedicated.index());
+        assertNull(dedicated.routing());
+        assertEquals("42", dedicated.documentId(42));
+        assertEquals("3f0c2d8e-index", dedicated.storageId());
+    }
+
+    @Test
+    public void pagesAndSearchesAreRoutedAndFilteredByDatasetKey() throws Exception {
+        ArgumentCaptor<MgetRequest> mget = ArgumentCaptor.forClass(MgetRequest.class);
+        when(esClient.mget(mget.capture(), eq(ObjectNode.class))).thenReturn(MgetResponse.of(m -> m
+                .docs(List.of())));
+        ArgumentCaptor<SearchRequest> search = ArgumentCaptor.forClass(SearchRequest.class);
+        when(esClient.search(search.capture(), eq(ObjectNode.class))).thenReturn(SearchResponse.of(r -> r
+                .took(1)
+                .timedOut(false)
+                .shards(s -> s.total(1).successful(1).failed(0))
+                .hits(h -> h.hits(List.of()))));
+
+        service.getPage(STORAGE_ID, PageRequest.of(1, 3)).close();
+        assertEquals("pool", mget.getValue().index());
+        assertEquals("key", mget.getValue().routing());
+        assertEquals(List.of("key_4", "key_5", "key_6"), mget.getValue().ids());
+        assertTrue(mget.getValue().sourceExcludes().contains("dskey"));
+
+        service.search(STORAGE_ID, "fox", PageRequest.of(0, 10));
+        assertEquals(List.of("pool"), search.getValue().index());
+        assertEquals("key", search.getValue().routing());
+        assertFilteredByDatasetKey(search.getValue().query());
+    }
+
+    @Test
+    public void cursorsOfOtherStoragesAreRejected() throws Exception {
+        assertThrows(IllegalArgumentException.class, () -> service.searchAfter(STORAGE_ID, "fox",
+                new SearchCursor("pool:other", 1.0, 10, null), 10, false));
+
+        // a point in time opened for another index is only noticed by the hits it returns
+        when(esClient.search(any(SearchRequest.class), eq(ObjectNode.class))).thenReturn(SearchResponse.<ObjectNode>of(r -> r
+                .took(1)
+                .timedOut(false)
+                .shards(s -> s.total(1).successful(1).failed(0))
+                .hits(h -> h.hits(List.of(Hit.<ObjectNode>of(hit -> hit.index("other-index").id("1")))))));
+        assertThrows(IllegalArgumentException.class, () -> service.searchAfter(STORAGE_ID, "fox",
+                new SearchCursor(STORAGE_ID, 1.0, 10, "foreign-pit"), 10, false));
+    }
+
+    @Test
+    public void asyncCursorSearchIsRoutedAndRejectsForeignHits() {
+        ArgumentCaptor<SearchRequest> search = ArgumentCaptor.forClass(SearchRequest.class);
+        when(esAsyncClient.search(search.capture(), eq(ObjectNode.class))).thenReturn(CompletableFuture.completedFuture(
+                SearchResponse.<ObjectNode>of(r -> r
+                        .took(1)
+                        .timedOut(false)
+                        .shards(s -> s.total(1).successful(1).failed(0))
+                        .hits(h -> h.hits(List.of())))));
+
+        JsonNode result = service.searchAfterAsync(STORAGE_ID, "fox",
+                new SearchCursor(STORAGE_ID, 1.0, 10, null), 10, false).join();
+        assertTrue(result.get("cursor").isNull());
+        assertEquals(List.of("pool"), search.getValue().index());
+        assertEquals("key", search.getValue().routing());
+        assertFilteredByDatasetKey(search.getValue().query());
+
+        CompletableFuture<JsonNode> foreignCursor = service.searchAfterAsync(STORAGE_ID, "fox",
+                new SearchCursor("pool:other", 1.0, 10, null), 10, false);
+        assertInstanceOf(IllegalArgumentException.class,
+                assertThrows(CompletionException.class, foreignCursor::join).getCause());
+
+        when(esAsyncClient.search(any(SearchRequest.class), eq(ObjectNode.class))).thenReturn(
+                CompletableFuture.completedFuture(SearchResponse.<ObjectNode>of(r -> r
+                        .took(1)
+                        .timedOut(false)
+                        .shards(s -> s.total(1).successful(1).failed(0))
+                        .hits(h -> h.hits(List.of(Hit.<ObjectNode>of(hit -> hit.index("other-index").id("1"))))))));
+        CompletableFuture<JsonNode> foreignPit = service.searchAfterAsync(STORAGE_ID, "fox",
+                new SearchCursor(STORAGE_ID, 1.0, 10, "foreign-pit"), 10, false);
+        assertInstanceOf(IllegalArgumentException.class,
+                assertThrows(CompletionException.class, foreignPit::join).getCause());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void deletionRefreshesIndexAndDeletesByDatasetKey() throws Exception {
+        ArgumentCaptor<Function<DeleteByQueryRequest.Builder, ObjectBuilder<DeleteByQueryRequest>>> deletion =
+                ArgumentCaptor.forClass(Function.class);
+        service.delete(STORAGE_ID);
+
+        InOrder order = inOrder(indicesClient, esClient);
+        order.verify(indicesClient).refresh(any(Function.class));
+        order.verify(esClient).deleteByQuery(deletion.capture());
+        DeleteByQueryRequest request = DeleteByQueryRequest.of(deletion.getValue());
+        assertEquals(List.of("pool"), request.index());
+        assertEquals("key", request.routing());
+        assertFilteredByDatasetKey(request.query());
+        verify(indicesClient, never()).delete(any(Function.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void storagesRollOverToNextSharedIndexNearFieldLimit() throws Exception {
+        Map<String, Property> fields = IntStream.range(0, 8).boxed().collect(Collectors.toMap(
+                i -> "column" + i, i -> Property.of(p -> p.text(t -> t))));
+        when(indicesClient.getMapping(any(Function.class))).thenReturn(GetMappingResponse.of(g -> g
+                .result("pool", IndexMappingRecord.of(r -> r.mappings(m -> m.properties(fields))))));
+        when(indicesClient.create(any(Function.class))).thenAnswer(invocation -> {
+            String index = CreateIndexRequest.of(invocation.getArgument(0)).index();
+            existingIndices.add(index);
+            return CreateIndexResponse.of(c -> c.index(index).acknowledged(true).shardsAcknowledged(true));
+        });
+
+        String storageId = service.create(50);
+        assertTrue(storageId.startsWith("pool-2:"));
+        assertTrue(existingIndices.contains("pool-2"));
+        // the new shared index has room for fields, so next storages stay in it
+        when(indicesClient.getMapping(any(Function.class))).thenReturn(GetMappingResponse.of(g -> g
+                .result("pool-2", IndexMappingRecord.of(r -> r.mappings(m -> m)))));
+        assertTrue(service.create(50).startsWith("pool-2:"));
+
+        assertFalse(service.create(500).contains(":"));
+        ReflectionTestUtils.setField(service, "sharedIndexEnabled", false);
+        assertFalse(service.create(50).contains(":"));
+    }
+}
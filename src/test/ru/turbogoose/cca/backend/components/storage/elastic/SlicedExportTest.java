@@ -0,0 +1,70 @@
+package ru.turbogoose.cca.backend.components.storage.elastic;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+import ru.turbogoose.cca.backend.components.storage.exception.StorageException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SlicedExportTest {
+    private static final int ROWS = 1000;
+    private static final int PAGE_SIZE = 30;
+
+    /**
+     * Rows are spread over slices unevenly, as Elasticsearch slices do not split row numbers into ranges
+     */
+    private static int sliceOf(long rowNum, int slices) {
+        return (int) ((rowNum * 7 + rowNum / 13) % slices);
+    }
+
+    private static SlicedExport.PageFetcher fetcher(int slices, Map<Integer, AtomicInteger> requests) {
+        return (slice, searchAfter) -> {
+            requests.computeIfAbsent(slice, s -> new AtomicInteger()).incrementAndGet();
+            long after = searchAfter != null ? searchAfter : 0;
+            List<SlicedExport.Row> page = LongStream.rangeClosed(after + 1, ROWS)
+                    .filter(rowNum -> sliceOf(rowNum, slices) == slice)
+                    .limit(PAGE_SIZE)
+                    .mapToObj(rowNum -> {
+                        ObjectNode source = JsonNodeFactory.instance.objectNode();
+                        source.put("id", Long.toString(rowNum));
+                        return new SlicedExport.Row(rowNum, source);
+                    })
+                    .toList();
+            return CompletableFuture.supplyAsync(() -> page);
+        };
+    }
+
+    @Test
+    public void slicesAreMergedInRowOrder() {
+        for (int slices : new int[]{1, 3, 8}) {
+            Map<Integer, AtomicInteger> requests = new ConcurrentHashMap<>();
+            List<String> ids = new ArrayList<>();
+            try (SlicedExport export = new SlicedExport(slices, fetcher(slices, requests))) {
+                export.forEachRemaining(row -> ids.add(row.get("id").asText()));
+            }
+            assertEquals(LongStream.rangeClosed(1, ROWS).mapToObj(Long::toString).toList(), ids);
+            assertEquals(slices, requests.size());
+        }
+    }
+
+    @Test
+    public void failedSliceFailsTheExport() {
+        SlicedExport.PageFetcher failing = (slice, searchAfter) -> slice == 1 && searchAfter != null
+                ? CompletableFuture.failedFuture(new IllegalStateException("node left"))
+                : fetcher(2, new ConcurrentHashMap<>()).fetch(slice, searchAfter);
+        try (SlicedExport export = new SlicedExport(2, failing)) {
+            StorageException exc = assertThrows(StorageException.class, () -> export.forEachRemaining(row -> {
+            }));
+            assertInstanceOf(IllegalStateException.class, exc.getCause());
+        }
+    }
+}
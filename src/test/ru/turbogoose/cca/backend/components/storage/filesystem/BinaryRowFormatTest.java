@@ -0,0 +1,171 @@
+package ru.turbogoose.cca.backend.components.storage.filesystem;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.commons.csv.CSVRecord;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.turbogoose.cca.backend.common.util.CsvUtil;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryRowFormatTest {
+    @TempDir
+    private Path tempDir;
+    private Path csvFile;
+    private Path binaryFile;
+
+    @BeforeEach
+    public void setUp() {
+        csvFile = tempDir.resolve("binary-test.csv");
+        binaryFile = tempDir.resolve("binary-test.bin");
+    }
+
+    private List<Long> writeBinary(List<List<String>> rows, List<String> headers) throws IOException {
+        return writeBinary(rows, headers, 0);
+    }
+
+    private List<Long> writeBinary(List<List<String>> rows, List<String> headers, int compressionLevel)
+            throws IOException {
+        List<Long> positions = new ArrayList<>();
+        try (BinaryRowFormat.Writer writer = new BinaryRowFormat.Writer(binaryFile, headers, compressionLevel)) {
+            for (List<String> row : rows) {
+                positions.add(writer.position());
+                writer.writeRow(row, row.size());
+            }
+        }
+        return positions;
+    }
+
+    @Test
+    public void rowsAreReadAsWritten() throws IOException {
+        assertRowsAreReadAsWritten(0);
+    }
+
+    @Test
+    public void blockCompressedRowsAreReadAsWritten() throws IOException {
+        assertRowsAreReadAsWritten(3);
+    }
+
+    private void assertRowsAreReadAsWritten(int compressionLevel) throws IOException {
+        List<String> headers = List.of("id", "text", "ünïcode");
+        List<List<String>> rows = List.of(
+                List.of("1", "plain", "значение"),
+                List.of("2", "", "x".repeat(300)),
+                List.of("3", "with \"quotes\", commas\nand line breaks", "😀"));
+        List<Long> positions = writeBinary(rows, headers, compressionLevel);
+
+        try (BinaryRowFormat.Reader reader = new BinaryRowFormat.Reader(binaryFile, 0)) {
+            assertEquals(headers, reader.getHeaderNames());
+            for (List<String> row : rows) {
+                assertArrayEquals(row.toArray(), reader.readRow());
+            }
+            assertNull(reader.readRow());
+        }
+        try (BinaryRowFormat.Reader reader = new BinaryRowFormat.Reader(binaryFile, positions.get(1))) {
+            assertEquals(headers, reader.getHeaderNames());
+            assertTrue(reader.skipRow());
+            assertArrayEquals(rows.get(2).toArray(), reader.readRow());
+            assertFalse(reader.skipRow());
+        }
+    }
+
+    /**
+     * Excluded from regular test runs, run with {@code -Dexcluded.test.groups= -Dgroups=benchmark}
+     */
+    @Test
+    @Tag("benchmark")
+    public void runBenchmarks() throws IOException {
+        int rows = 500_000;
+        try (Writer writer = Files.newBufferedWriter(csvFile, StandardCharsets.UTF_8)) {
+            writer.write("id,name,description,amount\n");
+            for (int i = 0; i < rows; i++) {
+                writer.write("%d,name %d,\"some longer description, with a comma\",%d.%02d\n"
+                        .formatted(i, i, i * 3, i % 100));
+            }
+        }
+        List<String> headers;
+        try (Stream<CSVRecord> records = CsvUtil.readCsvStreamFromFile(csvFile.toString());
+             BinaryRowFormat.Writer writer = new BinaryRowFormat.Writer(binaryFile,
+                     headers = CsvUtil.readCsvHeaderNames(csvFile.toString()))) {
+            Iterator<CSVRecord> iterator = records.iterator();
+            while (iterator.hasNext()) {
+                CSVRecord record = iterator.next();
+                writer.writeRow(record, record.size());
+            }
+        }
+        Path compressedFile = tempDir.resolve("binary-test.bin.zst");
+        try (Stream<CSVRecord> records = CsvUtil.readCsvStreamFromFile(csvFile.toString());
+             BinaryRowFormat.Writer writer = new BinaryRowFormat.Writer(compressedFile,
+                     CsvUtil.readCsvHeaderNames(csvFile.toString()), 3)) {
+            long rowNum = 0;
+            for (Iterator<CSVRecord> iterator = records.iterator(); iterator.hasNext(); rowNum++) {
+                if (rowNum % 1000 == 0) {
+                    writer.position();
+                }
+                CSVRecord record = iterator.next();
+                writer.writeRow(record, record.size());
+            }
+        }
+        System.out.printf("Benchmark files: %d rows, CSV %d KB, binary %d KB, block-compressed binary %d KB%n",
+                rows, Files.size(csvFile) / 1024, Files.size(binaryFile) / 1024, Files.size(compressedFile) / 1024);
+
+        for (int run = 0; run < 3; run++) {
+            long start = System.nanoTime();
+            long count;
+            try (Stream<CSVRecord> records = CsvUtil.readCsvStreamFromFile(csvFile.toString())) {
+                count = records.map(CsvUtil::csvRecordToJsonNode).count();
+            }
+            assertEquals(rows, count);
+            long csvMs = (System.nanoTime() - start) / 1_000_000;
+
+            start = System.nanoTime();
+            count = 0;
+            try (BinaryRowFormat.Reader reader = new BinaryRowFormat.Reader(binaryFile, 0)) {
+                String[] names = reader.getHeaderNames().toArray(new String[0]);
+                String[] values;
+                while ((values = reader.readRow()) != null) {
+                    ObjectNode json = JsonNodeFactory.instance.objectNode();
+                    for (int i = 0; i < names.length; i++) {
+                        json.put(names[i], values[i]);
+                    }
+                    consume(json);
+                    count++;
+                }
+            }
+            assertEquals(rows, count);
+            long binaryMs = (System.nanoTime() - start) / 1_000_000;
+            start = System.nanoTime();
+            count = 0;
+            try (BinaryRowFormat.Reader reader = new BinaryRowFormat.Reader(compressedFile, 0)) {
+                while (reader.readRow() != null) {
+                    count++;
+                }
+            }
+            assertEquals(rows, count);
+            long compressedMs = (System.nanoTime() - start) / 1_000_000;
+            System.out.printf("%d) full scan to JSON: CSV %d ms, binary %d ms (%.1fx); compressed binary rows %d ms%n",
+                    run, csvMs, binaryMs, (double) csvMs / Math.max(binaryMs, 1), compressedMs);
+        }
+        assertEquals(List.of("id", "name", "description", "amount"), headers);
+    }
+
+    private void consume(JsonNode json) {
+        if (json.isEmpty()) {
+            throw new IllegalStateException();
+        }
+    }
+}
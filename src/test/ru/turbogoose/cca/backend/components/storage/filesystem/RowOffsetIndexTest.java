@@ -0,0 +1,140 @@
+package ru.turbogoose.cca.backend.components.storage.filesystem;
+
+import org.apache.commons.csv.CSVRecord;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.turbogoose.cca.backend.common.util.BlockCompressedFile;
+import ru.turbogoose.cca.backend.common.util.CsvUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RowOffsetIndexTest {
+    private static final int INTERVAL = 7;
+    private static final int ROWS = 100;
+
+    private Path file;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        file = Files.createTempFile("index-test", ".csv");
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        RowOffsetIndex.delete(file.toString());
+        Files.deleteIfExists(file);
+    }
+
+    private String generateCsv() {
+        return "id,text\n" + IntStream.range(0, ROWS)
+                .mapToObj(i -> i % 5 == 0
+                        ? "%d,\"multi\nline, ünïcode\"\n".formatted(i)
+                        : "%d,value %d\n".formatted(i, i))
+                .collect(Collectors.joining());
+    }
+
+    private RowOffsetIndex writeIndexed(String csv) {
+        return writeIndexed(csv, 0);
+    }
+
+    private RowOffsetIndex writeIndexed(String csv, int compressionLevel) {
+        RowOffsetIndex.Builder builder = new RowOffsetIndex.Builder(INTERVAL);
+        InputStream in = new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8));
+        CsvUtil.writeCsvStreamToFile(CsvUtil.transferToCsvStream(in), file.toString(),
+                INTERVAL, builder::addCheckpoint, compressionLevel);
+        return builder.build();
+    }
+
+    private List<Map<String, String>> readFrom(RowOffsetIndex index, long row) {
+        RowOffsetIndex.Checkpoint checkpoint = index.floor(row).orElseThrow();
+        List<String> headers = CsvUtil.readCsvHeaderNames(file.toString());
+        try (Stream<CSVRecord> records = CsvUtil.readCsvStreamFromFile(file.toString(), checkpoint.position(), headers)) {
+            return records.skip(row - checkpoint.row()).map(CSVRecord::toMap).toList();
+        }
+    }
+
+    private List<Map<String, String>> readSequentially(long row) {
+        try (Stream<CSVRecord> records = CsvUtil.readCsvStreamFromFile(file.toString())) {
+            return records.skip(row).map(CSVRecord::toMap).toList();
+        }
+    }
+
+    @Test
+    public void seekingFromCheckpointMatchesSequentialRead() {
+        RowOffsetIndex index = writeIndexed(generateCsv());
+        for (long row : new long[]{0, 1, 6, 7, 8, 50, 98, 99}) {
+            assertEquals(readSequentially(row), readFrom(index, row));
+        }
+    }
+
+    @Test
+    public void seekingInBlockCompressedFileMatchesSequentialRead() throws IOException {
+        RowOffsetIndex index = writeIndexed(generateCsv(), 3);
+        assertTrue(BlockCompressedFile.isCompressed(file));
+        assertEquals(generateCsv().split("\n", 2)[0], String.join(",", CsvUtil.readCsvHeaderNames(file.toString())));
+        for (long row : new long[]{0, 1, 6, 7, 8, 50, 98, 99}) {
+            assertEquals(readSequentially(row), readFrom(index, row));
+        }
+        assertEquals(ROWS, readSequentially(0).size());
+    }
+
+    @Test
+    public void scannedIndexMatchesIndexBuiltWhileWriting() throws IOException {
+        RowOffsetIndex written = writeIndexed(generateCsv());
+        written.save(file.toString());
+        RowOffsetIndex scanned;
+        try (InputStream in = Files.newInputStream(file)) {
+            scanned = RowOffsetIndex.scan(in, INTERVAL);
+        }
+        for (long row = 0; row < ROWS; row++) {
+            assertEquals(written.floor(row), scanned.floor(row));
+        }
+        assertEquals(written.floor(ROWS - 1), RowOffsetIndex.load(file.toString()).orElseThrow().floor(ROWS - 1));
+    }
+
+    @Test
+    public void scanSkipsEmptyLines() throws IOException {
+        String csv = "id,text\r\n\r\n1,a\r\n\n2,b\r\n3,c";
+        Files.writeString(file, csv);
+        RowOffsetIndex index;
+        try (InputStream in = Files.newInputStream(file)) {
+            index = RowOffsetIndex.scan(in, 1);
+        }
+        assertEquals(readSequentially(2), readFrom(index, 2));
+        assertEquals(readSequentially(1), readFrom(index, 1));
+    }
+
+    @Test
+    public void scanTreatsStrayQuotesAsPlainCharacters() throws IOException {
+        String csv = "id,text\n" + IntStream.range(0, 30)
+                .mapToObj(i -> switch (i) {
+                    case 3, 7 -> "%d,5\" screen\n".formatted(i);
+                    case 5 -> "%d,\"multi\nline \"\"quoted\"\"\"\n".formatted(i);
+                    default -> "%d,value %d\n".formatted(i, i);
+                })
+                .collect(Collectors.joining());
+        Files.writeString(file, csv);
+        RowOffsetIndex index;
+        try (InputStream in = Files.newInputStream(file)) {
+            index = RowOffsetIndex.scan(in, 10);
+        }
+        assertEquals(30, readSequentially(0).size());
+        for (long row = 0; row < 30; row++) {
+            assertEquals(readSequentially(row), readFrom(index, row));
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package ru.turbogoose.cca.backend.components.storage.filesystem;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.util.FileSystemUtils;
+import ru.turbogoose.cca.backend.common.util.Compression;
+import ru.turbogoose.cca.backend.components.storage.exception.InsufficientStorageException;
+import ru.turbogoose.cca.backend.components.storage.info.StorageInfo;
+import ru.turbogoose.cca.backend.components.storage.info.StorageInfoRepository;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class TempStorageJanitorTest {
+    private Path folder;
+    private StorageInfoRepository repository;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("janitor-test");
+        repository = mock(StorageInfoRepository.class);
+        when(repository.getByStorageId(anyString())).thenReturn(Optional.empty());
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        FileSystemUtils.deleteRecursively(folder);
+    }
+
+    private Path createFile(String name, int size) throws IOException {
+        Path file = Files.write(folder.resolve(name), new byte[size]);
+        Files.setLastModifiedTime(file, FileTime.from(Instant.now().minus(1, ChronoUnit.HOURS)));
+        return file;
+    }
+
+    @Test
+    public void reservationsOverBudgetAreRejected() throws IOException {
+        createFile("existing.bin", 400);
+        TempStorageJanitor janitor = new TempStorageJanitor(1000, 0, 4, repository);
+        janitor.watch(folder);
+
+        TempStorageJanitor.Reservation reservation = janitor.reserve(500);
+        assertThrows(InsufficientStorageException.class, () -> janitor.reserve(200));
+        janitor.assertHasSpace();
+        reservation.close();
+        janitor.reserve(600).close();
+        assertThrows(InsufficientStorageException.class, () -> janitor.reserve(601));
+    }
+
+    @Test
+    public void compressedUploadsReserveTheirEstimatedDecompressedSize() throws IOException {
+        createFile("existing.bin", 400);
+        TempStorageJanitor janitor = new TempStorageJanitor(1000, 0, 4, repository);
+        janitor.watch(folder);
+
+        janitor.reserve(600, Compression.NONE).close();
+        janitor.reserve(150, Compression.GZIP).close();
+        assertThrows(InsufficientStorageException.class, () -> janitor.reserve(151, Compression.ZSTD));
+        janitor.reserve(-1, Compression.GZIP).close();
+    }
+
+    @Test
+    public void orphanFilesAreReclaimedOnStartup() throws IOException {
+        Path known = createFile("known.bin", 10);
+        Path knownIndex = createFile("known.bin.idx", 10);
+        Path orphan = createFile("orphan.bin", 10);
+        Path orphanIndex = createFile("orphan.bin.idx", 10);
+        when(repository.getByStorageId(known.toString())).thenReturn(Optional.of(new StorageInfo()));
+        TempStorageJanitor janitor = new TempStorageJanitor(0, 0, 4, repository);
+        janitor.watch(folder);
+        Path fresh = Files.write(folder.resolve("fresh.bin"), new byte[10]);
+
+        janitor.reclaimOrphanFiles();
+
+        assertTrue(Files.exists(known));
+        assertTrue(Files.exists(knownIndex));
+        assertTrue(Files.exists(fresh));
+        assertFalse(Files.exists(orphan));
+        assertFalse(Files.exists(orphanIndex));
+        assertEquals(20, janitor.getUsedBytes(known.toString()));
+        assertEquals(30, janitor.getUsedBytes());
+    }
+}
@@ -0,0 +1,180 @@
+package ru.turbogoose.cca.backend.components.storage.lucene;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.FileSystemUtils;
+import ru.turbogoose.cca.backend.components.storage.SearchCursor;
+import ru.turbogoose.cca.backend.components.storage.info.StorageInfo;
+import ru.turbogoose.cca.backend.components.storage.info.StorageInfoHelper;
+import ru.turbogoose.cca.backend.components.storage.info.StorageInfoRepository;
+import ru.turbogoose.cca.backend.components.storage.info.StorageStatus;
+import ru.turbogoose.cca.backend.components.storage.progress.IngestionProgressTracker;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class LuceneServiceTest {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private Path folder;
+    private StorageInfoRepository repository;
+    private LuceneService service;
+    private String storageId;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("lucene-test");
+        repository = inMemoryRepository();
+        service = new LuceneService(folder.toString(), new StorageInfoHelper(repository),
+                new IngestionProgressTracker());
+        ReflectionTestUtils.setField(service, "ramBufferSizeMb", 16.0);
+        ReflectionTestUtils.setField(service, "downloadBatchSize", 100);
+        storageId = service.create();
+        service.fill(storageId, IntStream.rangeClosed(1, 250).mapToObj(this::row));
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        service.closeReaders();
+        FileSystemUtils.deleteRecursively(folder);
+    }
+
+    private StorageInfoRepository inMemoryRepository() {
+        Map<String, StorageStatus> statuses = new ConcurrentHashMap<>();
+        StorageInfoRepository repository = mock(StorageInfoRepository.class);
+        when(repository.save(any())).thenAnswer(invocation -> {
+            StorageInfo info = invocation.getArgument(0);
+            statuses.put(info.getStorageId(), info.getStatus());
+            return info;
+        });
+        doAnswer(invocation -> statuses.put(invocation.getArgument(0), invocation.getArgument(1)))
+                .when(repository).updateStorageStatusById(anyString(), any());
+        when(repository.getByStorageId(anyString())).thenAnswer(invocation -> {
+            String id = invocation.getArgument(0);
+            return Optional.ofNullable(statuses.get(id))
+                    .map(status -> StorageInfo.builder().storageId(id).status(status).build());
+        });
+        return repository;
+    }
+
+    private JsonNode row(int num) {
+        ObjectNode node = objectMapper.createObjectNode();
+        node.put("id", Integer.toString(num));
+        node.put("text", num % 50 == 0 ? "quick brown fox <" + num + ">" : "lazy dog " + num);
+        return node;
+    }
+
+    @Test
+    public void pagesAreReadInInsertionOrder() {
+        try (Stream<JsonNode> page = service.getPage(storageId, PageRequest.of(2, 100))) {
+            List<JsonNode> rows = page.toList();
+            assertEquals(50, rows.size());
+            assertEquals(row(201), rows.getFirst());
+            assertEquals(row(250), rows.getLast());
+        }
+        try (Stream<JsonNode> all = service.getAll(storageId)) {
+            assertEquals(IntStream.rangeClosed(1, 250).mapToObj(this::row).toList(), all.toList());
+        }
+    }
+
+    @Test
+    public void searchHighlightsMatchedFieldsOnly() {
+        JsonNode result = service.search(storageId, "fox", PageRequest.of(0, 2));
+        assertEquals(5, result.get("total").asLong());
+        assertFalse(result.get("timeout").asBoolean());
+        JsonNode rows = result.get("rows");
+        assertEquals(2, rows.size());
+        JsonNode first = rows.get(0);
+        String num = first.get("src").get("id").asText();
+        assertEquals(first.get("num").asText(), num);
+        assertEquals("quick brown <mark class=\"hlt\">fox</mark> &lt;" + num + "&gt;",
+                first.get("src").get("text").asText());
+    }
+
+    @Test
+    public void cursorWalksThroughAllHits() {
+        List<String> cursorNums = new ArrayList<>();
+        SearchCursor cursor = null;
+        do {
+            JsonNode result = service.searchAfter(storageId, "dog", cursor, 30, false);
+            result.get("rows").forEach(row -> cursorNums.add(row.get("num").asText()));
+            cursor = SearchCursor.decode(result.get("cursor").asText(null));
+        } while (cursor != null);
+
+        List<String> offsetNums = new ArrayList<>();
+        service.search(storageId, "dog", PageRequest.of(0, 300)).get("rows")
+                .forEach(row -> offsetNums.add(row.get("num").asText()));
+        assertEquals(245, cursorNums.size());
+        assertEquals(offsetNums, cursorNums);
+        assertThrows(IllegalArgumentException.class, () -> SearchCursor.decode("not a cursor"));
+    }
+
+    @Test
+    public void cursorsOfOtherStoragesAreRejected() {
+        String otherStorageId = service.create();
+        service.fill(otherStorageId, IntStream.rangeClosed(1, 100).mapToObj(this::row));
+        SearchCursor cursor = SearchCursor.decode(
+                service.searchAfter(otherStorageId, "dog", null, 10, false).get("cursor").asText());
+
+        assertThrows(IllegalArgumentException.class, () -> service.searchAfter(storageId, "dog", cursor, 10, false));
+        SearchCursor pinnedByElastic = new SearchCursor(storageId, cursor.score(), cursor.position(), "pit");
+        assertThrows(IllegalArgumentException.class,
+                () -> service.searchAfter(storageId, "dog", pinnedByElastic, 10, false));
+    }
+
+    @Test
+    public void asyncVariantsServeTheSameResults() {
+        try (Stream<JsonNode> page = service.getPage(storageId, PageRequest.of(1, 30))) {
+            assertEquals(page.toList(), service.getPageAsync(storageId, PageRequest.of(1, 30)).join());
+        }
+        assertEquals(service.search(storageId, "fox", PageRequest.of(0, 3)),
+                service.searchAsync(storageId, "fox", PageRequest.of(0, 3)).join());
+
+        service.delete(storageId);
+        CompletableFuture<JsonNode> failed = service.searchAsync(storageId, "fox", PageRequest.of(0, 3));
+        assertTrue(failed.isCompletedExceptionally());
+    }
+
+    @Test
+    public void deletedStorageIsNotReady() throws IOException {
+        assertTrue(service.owns(storageId));
+        assertTrue(service.isSearcherReady(storageId));
+        service.search(storageId, "dog", PageRequest.of(0, 10));
+        service.delete(storageId);
+        assertFalse(service.isStorageReady(storageId));
+        try (Stream<Path> indices = Files.list(folder)) {
+            assertEquals(0, indices.count());
+        }
+    }
+
+    @Test
+    public void storagesAreServedAfterRestart() throws IOException {
+        service.closeReaders();
+        LuceneService restarted = new LuceneService(folder.toString(), new StorageInfoHelper(repository),
+                new IngestionProgressTracker());
+        assertTrue(restarted.owns(storageId));
+        assertFalse(restarted.owns("3f0c2d8e-index"));
+        assertEquals(5, restarted.search(storageId, "fox", PageRequest.of(0, 10)).get("total").asLong());
+        restarted.closeReaders();
+    }
+}
@@ -0,0 +1,75 @@
+package ru.turbogoose.cca.backend.components.storage.progress;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IngestionProgressTest {
+    private final AtomicLong nanos = new AtomicLong(1_000_000_000L);
+
+    private void advance(Duration duration) {
+        nanos.addAndGet(duration.toNanos());
+    }
+
+    @Test
+    public void rateAndEtaAreEstimatedByExpectedRows() {
+        IngestionProgress progress = new IngestionProgress(nanos::get);
+        progress.setExpectedRows(1000);
+        assertNull(progress.getEtaSeconds());
+
+        advance(Duration.ofSeconds(4));
+        progress.addRows(200);
+        assertEquals(4.0, progress.getElapsedSeconds(), 1e-9);
+        assertEquals(50.0, progress.getRowsPerSecond(), 1e-9);
+        assertEquals(16L, progress.getEtaSeconds());
+    }
+
+    @Test
+    public void etaFallsBackToExpectedBytes() {
+        AtomicLong bytes = new AtomicLong();
+        IngestionProgress progress = new IngestionProgress(nanos::get);
+        progress.trackBytes(bytes::get, 3000);
+        assertNull(progress.getEtaSeconds());
+
+        advance(Duration.ofSeconds(10));
+        bytes.set(1000);
+        assertEquals(20L, progress.getEtaSeconds());
+        // more rows than expected never give a negative estimate
+        progress.setExpectedRows(10);
+        progress.addRows(20);
+        assertEquals(0L, progress.getEtaSeconds());
+    }
+
+    @Test
+    public void finishedProgressIsFrozen() {
+        IngestionProgress progress = new IngestionProgress(nanos::get);
+        advance(Duration.ofSeconds(2));
+        progress.addRows(100);
+        progress.finish();
+        advance(Duration.ofSeconds(8));
+        progress.finish();
+
+        assertEquals(2.0, progress.getElapsedSeconds(), 1e-9);
+        assertEquals(50.0, progress.getRowsPerSecond(), 1e-9);
+        assertEquals(0L, progress.getEtaSeconds());
+        assertTrue(progress.isFinishedLongerThan(Duration.ofSeconds(7)));
+        assertFalse(progress.isFinishedLongerThan(Duration.ofSeconds(8)));
+    }
+
+    @Test
+    public void trackerEvictsFinishedProgressAfterRetention() throws InterruptedException {
+        IngestionProgressTracker tracker = new IngestionProgressTracker();
+        ReflectionTestUtils.setField(tracker, "retention", Duration.ofMillis(1));
+        tracker.track("loading").addRows(1);
+        tracker.track("loaded").finish();
+        assertTrue(tracker.get("loaded").isPresent());
+
+        Thread.sleep(20);
+        assertTrue(tracker.get("loaded").isEmpty());
+        assertEquals(1, tracker.get("loading").orElseThrow().getRowsIngested());
+    }
+}